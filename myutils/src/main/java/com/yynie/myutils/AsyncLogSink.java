@@ -0,0 +1,264 @@
+/**
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2018, yynie
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.yynie.myutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LogSink} which never blocks the logging threads.<br>
+ * The messages are put into a preallocated ring of events, claimed without locks.
+ * A background thread takes them in batches, formats them and writes them into a {@link MappedRollingFile}.
+ * When the ring is full the message is dropped and counted, see {@link #getDroppedCount()}.
+ * <p>
+ * Usage: <tt>Logger.setSink(new AsyncLogSink(new MappedRollingFile(dir, "app", 4 &lt;&lt; 20, 3), 4096));</tt>
+ * */
+public class AsyncLogSink implements LogSink {
+    private static final long PARK_NANOS = 200L * 1000000L;
+    private static final int MAX_BATCH = 256;
+
+    private final MappedRollingFile output;
+    private final int mask;
+    private final Event[] ring;
+    /** The sequence published in each slot, the consumer reads a slot once it holds the expected sequence */
+    private final AtomicLongArray published;
+    /** The next sequence to be claimed by a producer */
+    private final AtomicLong head = new AtomicLong();
+    /** The next sequence to be consumed, only written by the writer thread */
+    private volatile long tail;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writerThread;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    /**
+     * @param output the file to write
+     * @param capacity the number of events in the ring, rounded up to a power of two
+     * */
+    public AsyncLogSink(MappedRollingFile output, int capacity) {
+        if(output == null) throw new IllegalArgumentException("output");
+        if(capacity <= 0) throw new IllegalArgumentException("capacity: " + capacity);
+        this.output = output;
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) size <<= 1;
+        mask = size - 1;
+        ring = new Event[size];
+        published = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++){
+            ring[i] = new Event();
+            published.set(i, -1L);
+        }
+        writerThread = new Thread(new Writer(), AsyncLogSink.class.getSimpleName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    @Override
+    public void log(Logger.Level level, String tag, String message){
+        if(closed){
+            dropped.incrementAndGet();
+            return;
+        }
+        long seq;
+        do {
+            seq = head.get();
+            if(seq - tail > mask){
+                // Full, never block the caller
+                dropped.incrementAndGet();
+                return;
+            }
+        } while(!head.compareAndSet(seq, seq + 1));
+
+        Event event = ring[(int) seq & mask];
+        event.time = System.currentTimeMillis();
+        event.level = level;
+        event.tag = tag;
+        event.thread = Thread.currentThread().getName();
+        event.message = message;
+        published.lazySet((int) seq & mask, seq);
+
+        if(sleeping){
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * @return the number of messages dropped because the ring was full
+     * */
+    public long getDroppedCount(){
+        return dropped.get();
+    }
+
+    /**
+     * Write the pending messages, stop the writer thread and close the file.
+     * The messages logged after are dropped.
+     * */
+    public void close(){
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Event {
+        private long time;
+        private Logger.Level level;
+        private String tag;
+        private String thread;
+        private String message;
+    }
+
+    private class Writer implements Runnable {
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        private final Date date = new Date();
+        private final StringBuilder line = new StringBuilder(256);
+        private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+        private long lastDropReported;
+        /** Something has been written since the last force */
+        private boolean dirty;
+
+        @Override
+        public void run() {
+            for(;;){
+                int n = drain();
+                if(n == 0){
+                    if(closed && tail == head.get()){
+                        break;
+                    }
+                    if(dirty){
+                        output.force();
+                        dirty = false;
+                    }
+                    sleeping = true;
+                    // Check again, a producer may have published before seeing the flag
+                    if(!isPublished(tail)){
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+            try {
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private boolean isPublished(long seq){
+            return published.get((int) seq & mask) == seq;
+        }
+
+        /**
+         * Format and write one batch of events
+         *
+         * @return the number of events written
+         */
+        private int drain(){
+            long seq = tail;
+            int count = 0;
+            batch.clear();
+            reportDropped();
+            while(count < MAX_BATCH && isPublished(seq)){
+                Event event = ring[(int) seq & mask];
+                append(event);
+                event.tag = null;
+                event.thread = null;
+                event.message = null;
+                seq++;
+                count++;
+                // Release the slot to the producers
+                tail = seq;
+            }
+            if(batch.position() > 0){
+                batch.flip();
+                dirty = true;
+                try {
+                    output.write(batch);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return count;
+        }
+
+        private void reportDropped(){
+            long d = dropped.get();
+            if(d != lastDropReported){
+                line.setLength(0);
+                line.append("--- ").append(d - lastDropReported).append(" log messages dropped ---\n");
+                lastDropReported = d;
+                encode();
+            }
+        }
+
+        private void append(Event event){
+            date.setTime(event.time);
+            line.setLength(0);
+            line.append(dateFormat.format(date)).append(' ')
+                    .append(event.level.name().charAt(0)).append('/').append(event.tag)
+                    .append(" [").append(event.thread).append("]: ")
+                    .append(event.message).append('\n');
+            encode();
+        }
+
+        private void encode(){
+            CharBuffer chars = CharBuffer.wrap(line);
+            int needed = (int) (line.length() * encoder.maxBytesPerChar()) + 1;
+            if(batch.remaining() < needed){
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + needed));
+                batch.flip();
+                bigger.put(batch);
+                batch = bigger;
+            }
+            encoder.reset();
+            encoder.encode(chars, batch, true);
+            encoder.flush(batch);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2018, yynie
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.yynie.myutils;
+
+import java.io.PrintStream;
+
+/**
+ * {@link LogSink} writing to the standard output, WARN and ERROR to the standard error.
+ * This is the default one on a plain JVM.
+ * Lines look like logcat's brief format: <tt>I/Tag: message</tt>
+ * */
+public class ConsoleLogSink implements LogSink {
+    /**
+     * {@inheritDoc}
+     * */
+    @Override
+    public void log(Logger.Level level, String tag, String message){
+        PrintStream out = (level == Logger.Level.WARN || level == Logger.Level.ERROR) ? System.err : System.out;
+        out.println(level.name().charAt(0) + "/" + tag + ": " + message);
+    }
+}
@@ -28,12 +28,21 @@
  */
 package com.yynie.myutils;
 
-import android.util.Log;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 
 /**
  * An utility class used to print log strings on Android Devices.<br>
  * More powerful level controller provided.
  * Easy to use.
+ * <p>
+ * The messages are written to a {@link LogSink}, which is {@link AndroidLogSink} on Android
+ * and {@link ConsoleLogSink} on a plain JVM, so the same code can run outside Android.
+ * <p>
+ * To keep disabled logging free, guard costly messages with {@link #isDebugEnabled()} and the like,
+ * or use the parameterized variants such as {@link #d(String, Object)} which format the message
+ * only when the level is enabled. The placeholders are <tt>{}</tt>.
+ * When the last argument is a {@link Throwable}, its stack trace is appended to the message.
  *
  * @author <a href="mailto:yy_nie@hotmail.com">Yan.Nie</a>
  * */
@@ -101,18 +110,33 @@ public class Logger {
         }
     }
 
+    /**
+     * Provide a log message lazily, it is only called when the level is enabled.
+     * */
+    public interface MessageSupplier {
+        /**
+         * @return the log message
+         * */
+        String get();
+    }
+
     /**
      *  Main Level control at the global scope. The default value is ERROR.
      *
      *  @see Logger#setGlobalLevel(Level)
      *  @see Logger#getGlobalLevel()
      */
-    private static Level LEVEL_GLOBEL = Level.ERROR;
+    private static volatile Level LEVEL_GLOBEL = Level.ERROR;
+    /** Increased on every global level change, to invalidate the effective levels of the instances */
+    private static volatile int LEVEL_GENERATION = 0;
 
     private final String TAG;
     private final Level LEVEL;
-    private static String SUB_HEAD;
-    private static String GLOBAL_TAG = null;
+    /** The generation of the global level (high bits) and the effective level value (low 3 bits) */
+    private volatile int effective = -1;
+    private static volatile String SUB_HEAD;
+    private static volatile String GLOBAL_TAG = null;
+    private static volatile LogSink SINK = defaultSink();
 
     /**
      * Create a Logger instance for one Class in which scope you want to use Looger to print log
@@ -151,11 +175,39 @@ public class Logger {
      *
      * @param level
      * */
-    public static boolean setGlobalLevel(Level level){
+    public static synchronized boolean setGlobalLevel(Level level){
+        if(level == null) return false;
         LEVEL_GLOBEL = level;
+        LEVEL_GENERATION++;
         return true;
     }
 
+    /**
+     * set the sink all messages are written to. It will take effect immediately.
+     *
+     * @param sink the {@link LogSink}, null to restore the default one of the platform
+     * */
+    public static void setSink(LogSink sink){
+        SINK = (sink != null) ? sink : defaultSink();
+    }
+
+    /**
+     * get the current sink
+     *
+     * @return the {@link LogSink} all messages are written to
+     * */
+    public static LogSink getSink(){
+        return SINK;
+    }
+
+    private static LogSink defaultSink(){
+        String vm = System.getProperty("java.vm.name");
+        if(vm != null && vm.startsWith("Dalvik")){
+            return new AndroidLogSink();
+        }
+        return new ConsoleLogSink();
+    }
+
     /**
      * set global sub header. so your log string will be prefixed by this subHead string.
      * this setting takes effect only when GlobalTag is Null
@@ -188,8 +240,7 @@ public class Logger {
     public static boolean setGlobalLevel(int levelValue){
         Level set = Level.fromIntValue(levelValue);
         if(set == null) return false;
-        LEVEL_GLOBEL = set;
-        return true;
+        return setGlobalLevel(set);
     }
 
     private Logger(String tag, Level level){
@@ -198,8 +249,51 @@ public class Logger {
     }
 
     private boolean isLevelAllowed(Level check){
-        Level higher = Level.getHigher(LEVEL, LEVEL_GLOBEL);
-        return higher.isAllow(check);
+        int gen = LEVEL_GENERATION;
+        int e = effective;
+        if(e < 0 || (e >>> 3) != (gen & 0x0FFFFFFF)){
+            // The global level changed, compute the effective level again
+            Level higher = Level.getHigher(LEVEL, LEVEL_GLOBEL);
+            e = ((gen & 0x0FFFFFFF) << 3) | higher.value;
+            effective = e;
+        }
+        return (e & 0x07) <= check.value;
+    }
+
+    /**
+     * @param level the level to check
+     * @return true if messages at this level would be logged
+     * */
+    public boolean isEnabled(Level level){
+        return isLevelAllowed(level);
+    }
+
+    /**
+     * @return true if messages at DEBUG level would be logged
+     * */
+    public boolean isDebugEnabled(){
+        return isLevelAllowed(Level.DEBUG);
+    }
+
+    /**
+     * @return true if messages at INFO level would be logged
+     * */
+    public boolean isInfoEnabled(){
+        return isLevelAllowed(Level.INFO);
+    }
+
+    /**
+     * @return true if messages at WARN level would be logged
+     * */
+    public boolean isWarnEnabled(){
+        return isLevelAllowed(Level.WARN);
+    }
+
+    /**
+     * @return true if messages at ERROR level would be logged
+     * */
+    public boolean isErrorEnabled(){
+        return isLevelAllowed(Level.ERROR);
     }
 
     private String wrapOutputMessage(String message){
@@ -217,13 +311,82 @@ public class Logger {
         if(GLOBAL_TAG != null && !GLOBAL_TAG.trim().isEmpty()) return GLOBAL_TAG;
         return TAG;
     }
+    private void write(Level level, String message){
+        SINK.log(level, getTag(), wrapOutputMessage(message));
+    }
+
+    /**
+     * Replace each <tt>{}</tt> in the format with the next argument.
+     * Extra placeholders are kept, extra arguments are ignored,
+     * but for a last {@link Throwable} argument whose stack trace is appended.
+     * */
+    static String format(String format, Object[] args){
+        if(format == null || args == null || args.length == 0) return format;
+        StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+        int start = 0;
+        int argIndex = 0;
+        int pos;
+        while(argIndex < args.length && (pos = format.indexOf("{}", start)) >= 0){
+            sb.append(format, start, pos).append(args[argIndex++]);
+            start = pos + 2;
+        }
+        sb.append(format, start, format.length());
+        Object last = args[args.length - 1];
+        if(last instanceof Throwable){
+            StringWriter trace = new StringWriter();
+            ((Throwable) last).printStackTrace(new PrintWriter(trace));
+            sb.append('\n').append(trace.toString().trim());
+        }
+        return sb.toString();
+    }
+
     /**
      * log a message at DEBUG level
      *
      * @param debug debug message
      * */
     public void d (String debug){
-        if(isLevelAllowed(Level.DEBUG)) Log.d(getTag(),  wrapOutputMessage(debug));
+        if(isLevelAllowed(Level.DEBUG)) write(Level.DEBUG, debug);
+    }
+
+    /**
+     * log a message at DEBUG level, formatted only if the level is enabled
+     *
+     * @param format the message with a <tt>{}</tt> placeholder
+     * @param arg the argument
+     * */
+    public void d (String format, Object arg){
+        if(isLevelAllowed(Level.DEBUG)) write(Level.DEBUG, format(format, new Object[]{arg}));
+    }
+
+    /**
+     * log a message at DEBUG level, formatted only if the level is enabled
+     *
+     * @param format the message with two <tt>{}</tt> placeholders
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     * */
+    public void d (String format, Object arg1, Object arg2){
+        if(isLevelAllowed(Level.DEBUG)) write(Level.DEBUG, format(format, new Object[]{arg1, arg2}));
+    }
+
+    /**
+     * log a message at DEBUG level, formatted only if the level is enabled
+     *
+     * @param format the message with <tt>{}</tt> placeholders
+     * @param args the arguments
+     * */
+    public void d (String format, Object... args){
+        if(isLevelAllowed(Level.DEBUG)) write(Level.DEBUG, format(format, args));
+    }
+
+    /**
+     * log a message at DEBUG level, built only if the level is enabled
+     *
+     * @param supplier supplies the debug message
+     * */
+    public void d (MessageSupplier supplier){
+        if(isLevelAllowed(Level.DEBUG)) write(Level.DEBUG, supplier.get());
     }
 
     /**
@@ -232,7 +395,47 @@ public class Logger {
      * @param info info message
      * */
     public void i (String info){
-        if(isLevelAllowed(Level.INFO)) Log.i(getTag(),  wrapOutputMessage(info));
+        if(isLevelAllowed(Level.INFO)) write(Level.INFO, info);
+    }
+
+    /**
+     * log a message at INFO level, formatted only if the level is enabled
+     *
+     * @param format the message with a <tt>{}</tt> placeholder
+     * @param arg the argument
+     * */
+    public void i (String format, Object arg){
+        if(isLevelAllowed(Level.INFO)) write(Level.INFO, format(format, new Object[]{arg}));
+    }
+
+    /**
+     * log a message at INFO level, formatted only if the level is enabled
+     *
+     * @param format the message with two <tt>{}</tt> placeholders
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     * */
+    public void i (String format, Object arg1, Object arg2){
+        if(isLevelAllowed(Level.INFO)) write(Level.INFO, format(format, new Object[]{arg1, arg2}));
+    }
+
+    /**
+     * log a message at INFO level, formatted only if the level is enabled
+     *
+     * @param format the message with <tt>{}</tt> placeholders
+     * @param args the arguments
+     * */
+    public void i (String format, Object... args){
+        if(isLevelAllowed(Level.INFO)) write(Level.INFO, format(format, args));
+    }
+
+    /**
+     * log a message at INFO level, built only if the level is enabled
+     *
+     * @param supplier supplies the info message
+     * */
+    public void i (MessageSupplier supplier){
+        if(isLevelAllowed(Level.INFO)) write(Level.INFO, supplier.get());
     }
 
     /**
@@ -241,7 +444,47 @@ public class Logger {
      * @param warning warning message
      * */
     public void w (String warning){
-        if(isLevelAllowed(Level.WARN)) Log.w(getTag(),  wrapOutputMessage(warning));
+        if(isLevelAllowed(Level.WARN)) write(Level.WARN, warning);
+    }
+
+    /**
+     * log a message at WARN level, formatted only if the level is enabled
+     *
+     * @param format the message with a <tt>{}</tt> placeholder
+     * @param arg the argument
+     * */
+    public void w (String format, Object arg){
+        if(isLevelAllowed(Level.WARN)) write(Level.WARN, format(format, new Object[]{arg}));
+    }
+
+    /**
+     * log a message at WARN level, formatted only if the level is enabled
+     *
+     * @param format the message with two <tt>{}</tt> placeholders
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     * */
+    public void w (String format, Object arg1, Object arg2){
+        if(isLevelAllowed(Level.WARN)) write(Level.WARN, format(format, new Object[]{arg1, arg2}));
+    }
+
+    /**
+     * log a message at WARN level, formatted only if the level is enabled
+     *
+     * @param format the message with <tt>{}</tt> placeholders
+     * @param args the arguments
+     * */
+    public void w (String format, Object... args){
+        if(isLevelAllowed(Level.WARN)) write(Level.WARN, format(format, args));
+    }
+
+    /**
+     * log a message at WARN level, built only if the level is enabled
+     *
+     * @param supplier supplies the warning message
+     * */
+    public void w (MessageSupplier supplier){
+        if(isLevelAllowed(Level.WARN)) write(Level.WARN, supplier.get());
     }
 
     /**
@@ -250,7 +493,47 @@ public class Logger {
      * @param error error message
      * */
     public void e (String error){
-        if(isLevelAllowed(Level.ERROR)) Log.e(getTag(),  wrapOutputMessage(error));
+        if(isLevelAllowed(Level.ERROR)) write(Level.ERROR, error);
+    }
+
+    /**
+     * log a message at ERROR level, formatted only if the level is enabled
+     *
+     * @param format the message with a <tt>{}</tt> placeholder
+     * @param arg the argument
+     * */
+    public void e (String format, Object arg){
+        if(isLevelAllowed(Level.ERROR)) write(Level.ERROR, format(format, new Object[]{arg}));
+    }
+
+    /**
+     * log a message at ERROR level, formatted only if the level is enabled
+     *
+     * @param format the message with two <tt>{}</tt> placeholders
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     * */
+    public void e (String format, Object arg1, Object arg2){
+        if(isLevelAllowed(Level.ERROR)) write(Level.ERROR, format(format, new Object[]{arg1, arg2}));
+    }
+
+    /**
+     * log a message at ERROR level, formatted only if the level is enabled
+     *
+     * @param format the message with <tt>{}</tt> placeholders
+     * @param args the arguments
+     * */
+    public void e (String format, Object... args){
+        if(isLevelAllowed(Level.ERROR)) write(Level.ERROR, format(format, args));
+    }
+
+    /**
+     * log a message at ERROR level, built only if the level is enabled
+     *
+     * @param supplier supplies the error message
+     * */
+    public void e (MessageSupplier supplier){
+        if(isLevelAllowed(Level.ERROR)) write(Level.ERROR, supplier.get());
     }
 
     /**
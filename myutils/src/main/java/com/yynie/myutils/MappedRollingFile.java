@@ -0,0 +1,180 @@
+/**
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2018, yynie
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.yynie.myutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A log file written through a memory mapped region, rolled over by size.<br>
+ * The current file is <tt>dir/name.log</tt>, the rolled ones are <tt>name.1.log</tt> (newest)
+ * up to <tt>name.N.log</tt> (oldest), older ones are deleted.
+ * <p>
+ * Each file is mapped with its maximum size up front and truncated to the written size when it
+ * is rolled or closed. An existing file is rolled when opened.
+ * Not thread safe, it is meant to be written by one thread such as the one of {@link AsyncLogSink}.
+ * */
+public class MappedRollingFile {
+    private final File dir;
+    private final String name;
+    private final int maxFileSize;
+    private final int maxBackups;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    /**
+     * @param dir the directory of the log files, created if missing
+     * @param name the base name of the log files
+     * @param maxFileSize the size after which the file is rolled, in bytes
+     * @param maxBackups the number of rolled files to keep
+     * @throws IOException if the file can't be created or mapped
+     * */
+    public MappedRollingFile(File dir, String name, int maxFileSize, int maxBackups) throws IOException {
+        if(dir == null) throw new IllegalArgumentException("dir");
+        if(StringUtils.isBlank(name)) throw new IllegalArgumentException("name");
+        if(maxFileSize <= 0) throw new IllegalArgumentException("maxFileSize: " + maxFileSize);
+        if(maxBackups < 0) throw new IllegalArgumentException("maxBackups: " + maxBackups);
+        this.dir = dir;
+        this.name = name;
+        this.maxFileSize = maxFileSize;
+        this.maxBackups = maxBackups;
+        if(!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Can't create " + dir);
+        }
+        if(currentFile().length() > 0){
+            shiftBackups();
+        }
+        open();
+    }
+
+    /**
+     * @return the file being written
+     * */
+    public File currentFile(){
+        return new File(dir, name + ".log");
+    }
+
+    /**
+     * Write the remaining bytes of the buffer, rolling the file when it is full.
+     * The buffer is not split unless it is bigger than the maximum file size.
+     *
+     * @param src the bytes to write
+     * @throws IOException if the rolling fails
+     * */
+    public void write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if(src.remaining() > mapped.remaining() && src.remaining() <= maxFileSize && mapped.position() > 0){
+            roll();
+        }
+        while(src.hasRemaining()){
+            if(!mapped.hasRemaining()){
+                roll();
+            }
+            int n = Math.min(src.remaining(), mapped.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            mapped.put(src);
+            src.limit(limit);
+        }
+    }
+
+    /**
+     * Force the written bytes to the storage
+     * */
+    public void force(){
+        if(mapped != null) mapped.force();
+    }
+
+    /**
+     * Roll the current file over
+     *
+     * @throws IOException if the new file can't be created or mapped
+     * */
+    public void roll() throws IOException {
+        closeCurrent();
+        shiftBackups();
+        open();
+    }
+
+    /**
+     * Truncate the current file to the written size and release it
+     *
+     * @throws IOException if the truncation fails
+     * */
+    public void close() throws IOException {
+        closeCurrent();
+    }
+
+    private void ensureOpen() throws IOException {
+        if(mapped == null) throw new IOException("closed");
+    }
+
+    private void open() throws IOException {
+        file = new RandomAccessFile(currentFile(), "rw");
+        channel = file.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxFileSize);
+    }
+
+    private void closeCurrent() throws IOException {
+        if(mapped == null) return;
+        int written = mapped.position();
+        mapped.force();
+        // The mapping itself is released by the garbage collector
+        mapped = null;
+        try {
+            channel.truncate(written);
+        } finally {
+            file.close();
+            channel = null;
+            file = null;
+        }
+    }
+
+    private void shiftBackups(){
+        File oldest = backupFile(maxBackups);
+        if(maxBackups == 0 || oldest.exists()){
+            (maxBackups == 0 ? currentFile() : oldest).delete();
+        }
+        for(int i = maxBackups - 1; i >= 1; i--){
+            File f = backupFile(i);
+            if(f.exists()) f.renameTo(backupFile(i + 1));
+        }
+        if(maxBackups > 0) currentFile().renameTo(backupFile(1));
+    }
+
+    private File backupFile(int index){
+        return new File(dir, name + "." + index + ".log");
+    }
+}
@@ -5,6 +5,7 @@ import com.sonf.core.future.DefaultIOFuture;
 import com.sonf.core.session.AbstractIOSession;
 import com.sonf.core.session.IOHandler;
 import com.sonf.core.session.IOHandlerAdapter;
+import com.sonf.core.session.OrderedHandlerDispatcher;
 import com.sonf.polling.AbstractPollingIoProcessor;
 import com.yynie.myutils.Logger;
 
@@ -37,6 +38,12 @@ public abstract class AbstractIOController<S extends AbstractIOSession> implemen
 
     private IOHandler handler = new IOHandlerAdapter();
 
+    /** The executor running the handler callbacks, null to run them on the processor thread */
+    private Executor handlerExecutor;
+
+    /** The handler, or its dispatcher onto the handlerExecutor */
+    private volatile IOHandler dispatchHandler = handler;
+
     protected final Object disposalLock = new Object();
 
     private volatile boolean disposing;
@@ -190,5 +197,42 @@ public abstract class AbstractIOController<S extends AbstractIOSession> implemen
         }
 
         this.handler = handler;
+        updateDispatchHandler();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final IOHandler getDispatchHandler() {
+        return dispatchHandler;
+    }
+
+    /**
+     * Run the {@link IOHandler} callbacks on the given executor instead of the processor thread,
+     * so a handler may block without delaying the I/O of the other sessions.
+     * The events of a session are still delivered one at a time and in order,
+     * see {@link OrderedHandlerDispatcher}. The executor is not shut down by {@link #dispose()}.
+     *
+     * @param executor the executor, or <code>null</code> to call the handler on the processor thread (default)
+     */
+    public final void setHandlerExecutor(Executor executor) {
+        if (isActive()) {
+            throw new IllegalStateException("handler executor cannot be set while the service is active.");
+        }
+
+        this.handlerExecutor = executor;
+        updateDispatchHandler();
+    }
+
+    /**
+     * @return the executor running the handler callbacks, <code>null</code> if they run on the processor thread
+     */
+    public final Executor getHandlerExecutor() {
+        return handlerExecutor;
+    }
+
+    private void updateDispatchHandler() {
+        dispatchHandler = (handlerExecutor == null) ? handler : new OrderedHandlerDispatcher(handler, handlerExecutor);
     }
 }
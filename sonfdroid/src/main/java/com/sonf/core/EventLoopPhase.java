@@ -0,0 +1,18 @@
+package com.sonf.core;
+
+/**
+ * The phases of one iteration of a processor's event loop,
+ * each one is timed into its own {@link LatencyHistogram}.
+ */
+public enum EventLoopPhase {
+    /** Waiting in select() */
+    SELECT,
+    /** Reading the selected sessions */
+    PROCESS,
+    /** Writing the sessions scheduled for flush */
+    FLUSH,
+    /** Closing the sessions scheduled for removal */
+    REMOVE_SESSIONS,
+    /** Firing the idle and write timeout events */
+    NOTIFY_IDLE
+}
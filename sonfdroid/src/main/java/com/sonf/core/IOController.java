@@ -88,6 +88,12 @@ public interface IOController<S> {
      */
     void setHandler(IOHandler handler);
 
+    /**
+     * @return the handler the filter chains deliver the events to. It is the handler itself,
+     * or a dispatcher running it on the handler executor if one is set.
+     */
+    IOHandler getDispatchHandler();
+
     /**
      * Releases all resources allocated by this Controller.  Please note that
      * this method might block as long as there are any sessions managed by
@@ -102,4 +108,9 @@ public interface IOController<S> {
      */
     boolean isDisposing();
 
+    /**
+     * @return a snapshot of the I/O counters aggregated over all processors of this Controller
+     */
+    IoStatistics getStatistics();
+
 }
@@ -1,6 +1,7 @@
 package com.sonf.core;
 
 import com.sonf.core.session.IOSession;
+import com.sonf.core.write.IWritePacket;
 
 public interface IOProcessor<S extends IOSession> {
 
@@ -45,4 +46,45 @@ public interface IOProcessor<S extends IOSession> {
      * @param session The session that has at lease one message to be send to the remote endpoint
      */
     void flush(S session);
+
+    /**
+     * Apply the read and write suspension of the session to its channel, from the processor thread.
+     *
+     * @param session The session which read or write was suspended or resumed
+     */
+    void updateTrafficControl(S session);
+
+    /**
+     * Enqueue a packet into the write queue of the session and flush it.
+     * From the processor thread the packet may be written at once.
+     *
+     * @param session the session to write to
+     * @param packet the packet, holding an encoded message
+     */
+    void write(S session, IWritePacket packet);
+
+    /**
+     * @return the I/O counters of all sessions ever handled by this processor
+     */
+    IoStatistics getStatistics();
+
+    /**
+     * @param phase the phase of the event loop
+     * @return the histogram of the time spent in the given phase per loop iteration
+     */
+    LatencyHistogram getLatencyHistogram(EventLoopPhase phase);
+
+    /**
+     * Set the time after which a busy loop iteration is reported as a stall.
+     *
+     * @param stallThresholdMs the threshold in milliseconds, 0 to disable the detection
+     */
+    void setStallThresholdMs(long stallThresholdMs);
+
+    /**
+     * Set the listener notified of the stalls, by default they are logged.
+     *
+     * @param listener the {@link StallListener}, or <tt>null</tt> to restore the default one
+     */
+    void setStallListener(StallListener listener);
 }
@@ -0,0 +1,279 @@
+package com.sonf.core;
+
+import com.sonf.core.session.IOSession;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * I/O counters of an {@link IOSession} or an {@link IOProcessor}.
+ *
+ * The read/written counters and the throughput are only updated by the processor thread
+ * which owns the session, so they are plain volatile fields with a single writer.
+ * The scheduled write counters are updated by the writing threads and by the processor thread.
+ * Values read from another thread may be slightly stale.
+ */
+public class IoStatistics {
+    private static final AtomicIntegerFieldUpdater<IoStatistics> SCHEDULED_WRITE_BYTES =
+            AtomicIntegerFieldUpdater.newUpdater(IoStatistics.class, "scheduledWriteBytes");
+    private static final AtomicIntegerFieldUpdater<IoStatistics> SCHEDULED_WRITE_MESSAGES =
+            AtomicIntegerFieldUpdater.newUpdater(IoStatistics.class, "scheduledWriteMessages");
+
+    /** The default window of the throughput calculation */
+    public static final long DEFAULT_THROUGHPUT_WINDOW_MS = 3000L;
+
+    private volatile long readBytes;
+    private volatile long writtenBytes;
+    private volatile long readMessages;
+    private volatile long writtenMessages;
+    private volatile long lastReadTime;
+    private volatile long lastWriteTime;
+
+    private volatile int scheduledWriteBytes;
+    private volatile int scheduledWriteMessages;
+
+    private long throughputWindowMs = DEFAULT_THROUGHPUT_WINDOW_MS;
+    private long lastThroughputTime;
+    private long lastReadBytes;
+    private long lastWrittenBytes;
+    private long lastReadMessages;
+    private long lastWrittenMessages;
+    private volatile double readBytesThroughput;
+    private volatile double writtenBytesThroughput;
+    private volatile double readMessagesThroughput;
+    private volatile double writtenMessagesThroughput;
+
+    /**
+     * @return the total number of bytes read
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * @return the total number of bytes written
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return the total number of messages received by the handler
+     */
+    public long getReadMessages() {
+        return readMessages;
+    }
+
+    /**
+     * @return the total number of messages sent
+     */
+    public long getWrittenMessages() {
+        return writtenMessages;
+    }
+
+    /**
+     * @return the time of the last read, in milliseconds of the elapsed real time
+     */
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    /**
+     * @return the time of the last write, in milliseconds of the elapsed real time
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * @return the number of bytes waiting in the write queue
+     */
+    public int getScheduledWriteBytes() {
+        return scheduledWriteBytes;
+    }
+
+    /**
+     * @return the number of packets waiting in the write queue
+     */
+    public int getScheduledWriteMessages() {
+        return scheduledWriteMessages;
+    }
+
+    /**
+     * @return the read bytes per second over the last throughput window
+     */
+    public double getReadBytesThroughput() {
+        return readBytesThroughput;
+    }
+
+    /**
+     * @return the written bytes per second over the last throughput window
+     */
+    public double getWrittenBytesThroughput() {
+        return writtenBytesThroughput;
+    }
+
+    /**
+     * @return the received messages per second over the last throughput window
+     */
+    public double getReadMessagesThroughput() {
+        return readMessagesThroughput;
+    }
+
+    /**
+     * @return the sent messages per second over the last throughput window
+     */
+    public double getWrittenMessagesThroughput() {
+        return writtenMessagesThroughput;
+    }
+
+    /**
+     * @return the window of the throughput calculation in milliseconds
+     */
+    public long getThroughputWindowMs() {
+        return throughputWindowMs;
+    }
+
+    /**
+     * Set the window of the throughput calculation.
+     * Note that the throughput is updated on the idle check of the processor, about once a second.
+     *
+     * @param throughputWindowMs the window in milliseconds
+     */
+    public void setThroughputWindowMs(long throughputWindowMs) {
+        if (throughputWindowMs <= 0) {
+            throw new IllegalArgumentException("throughputWindowMs: " + throughputWindowMs + " (expected: 1+)");
+        }
+        this.throughputWindowMs = throughputWindowMs;
+    }
+
+    /**
+     * Increase the read bytes. Called by the processor thread only.
+     *
+     * @param bytes the number of bytes read
+     */
+    public final void increaseReadBytes(int bytes) {
+        readBytes += bytes;
+    }
+
+    /**
+     * Increase the written bytes. Called by the processor thread only.
+     *
+     * @param bytes the number of bytes written
+     */
+    public final void increaseWrittenBytes(int bytes) {
+        writtenBytes += bytes;
+    }
+
+    /**
+     * Increase the received messages. Called by the processor thread only.
+     */
+    public final void increaseReadMessages() {
+        readMessages++;
+    }
+
+    /**
+     * Increase the sent messages. Called by the processor thread only.
+     */
+    public final void increaseWrittenMessages() {
+        writtenMessages++;
+    }
+
+    /**
+     * @param lastReadTime the time of the last read
+     */
+    public final void setLastReadTime(long lastReadTime) {
+        this.lastReadTime = lastReadTime;
+    }
+
+    /**
+     * @param lastWriteTime the time of the last write
+     */
+    public final void setLastWriteTime(long lastWriteTime) {
+        this.lastWriteTime = lastWriteTime;
+    }
+
+    /**
+     * Account a packet entering (positive values) or leaving (negative values) the write queue.
+     * May be called from any thread.
+     *
+     * @param bytes the size of the packet
+     * @param messages 1 or -1
+     */
+    public final void increaseScheduledWrite(int bytes, int messages) {
+        SCHEDULED_WRITE_BYTES.addAndGet(this, bytes);
+        SCHEDULED_WRITE_MESSAGES.addAndGet(this, messages);
+    }
+
+    /**
+     * Update the throughput if the window has elapsed. Called by the processor thread only.
+     *
+     * @param curElapsedTime the current elapsed real time in milliseconds
+     */
+    public void updateThroughput(long curElapsedTime) {
+        if (lastThroughputTime == 0) {
+            lastThroughputTime = curElapsedTime;
+            return;
+        }
+        long interval = curElapsedTime - lastThroughputTime;
+        if (interval < throughputWindowMs) {
+            return;
+        }
+
+        long rb = readBytes;
+        long wb = writtenBytes;
+        long rm = readMessages;
+        long wm = writtenMessages;
+        readBytesThroughput = (rb - lastReadBytes) * 1000.0 / interval;
+        writtenBytesThroughput = (wb - lastWrittenBytes) * 1000.0 / interval;
+        readMessagesThroughput = (rm - lastReadMessages) * 1000.0 / interval;
+        writtenMessagesThroughput = (wm - lastWrittenMessages) * 1000.0 / interval;
+        lastReadBytes = rb;
+        lastWrittenBytes = wb;
+        lastReadMessages = rm;
+        lastWrittenMessages = wm;
+        lastThroughputTime = curElapsedTime;
+    }
+
+    /**
+     * @return a detached copy of the current values
+     */
+    public IoStatistics snapshot() {
+        IoStatistics copy = new IoStatistics();
+        copy.add(this);
+        copy.throughputWindowMs = throughputWindowMs;
+        return copy;
+    }
+
+    /**
+     * Add the values of another statistics to this one, used to build an aggregate snapshot.
+     * The last read/write times are the latest of both.
+     *
+     * @param other the statistics to add
+     */
+    public void add(IoStatistics other) {
+        readBytes += other.readBytes;
+        writtenBytes += other.writtenBytes;
+        readMessages += other.readMessages;
+        writtenMessages += other.writtenMessages;
+        lastReadTime = Math.max(lastReadTime, other.lastReadTime);
+        lastWriteTime = Math.max(lastWriteTime, other.lastWriteTime);
+        scheduledWriteBytes += other.scheduledWriteBytes;
+        scheduledWriteMessages += other.scheduledWriteMessages;
+        readBytesThroughput += other.readBytesThroughput;
+        writtenBytesThroughput += other.writtenBytesThroughput;
+        readMessagesThroughput += other.readMessagesThroughput;
+        writtenMessagesThroughput += other.writtenMessagesThroughput;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "IoStatistics[read=" + readBytes + "B/" + readMessages + "msg"
+                + " written=" + writtenBytes + "B/" + writtenMessages + "msg"
+                + " scheduled=" + scheduledWriteBytes + "B/" + scheduledWriteMessages + "msg"
+                + " in=" + (long) readBytesThroughput + "B/s"
+                + " out=" + (long) writtenBytesThroughput + "B/s]";
+    }
+}
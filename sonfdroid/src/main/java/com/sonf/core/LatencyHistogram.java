@@ -0,0 +1,147 @@
+package com.sonf.core;
+
+/**
+ * Fixed-memory log-linear histogram of durations, with a microsecond resolution.
+ * Every power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so the
+ * relative error of a recorded value is less than 12.5%. Values of 2^40 us and above
+ * are counted in the last bucket.
+ *
+ * A histogram has a single writer, the processor thread. Readers on other threads get
+ * approximate values, use {@link #snapshot()} to read consistent percentiles.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 39;
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private volatile long totalCount;
+    private volatile long totalMicros;
+    private volatile long maxMicros;
+
+    /**
+     * Record a duration
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public final void record(long nanos) {
+        long micros = nanos < 0 ? 0 : nanos / 1000L;
+        counts[indexOf(micros)]++;
+        totalMicros += micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+        totalCount++;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return the highest recorded value in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @return the mean of the recorded values in microseconds
+     */
+    public double getMeanMicros() {
+        long count = totalCount;
+        return count == 0 ? 0 : (double) totalMicros / count;
+    }
+
+    /**
+     * Get the value below which the given percentage of values fall.
+     *
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in microseconds
+     */
+    public long getPercentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile: " + percentile);
+        }
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    /**
+     * @return a detached copy of this histogram
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKET_COUNT);
+        copy.totalCount = totalCount;
+        copy.totalMicros = totalMicros;
+        copy.maxMicros = maxMicros;
+        return copy;
+    }
+
+    /**
+     * Clear all recorded values. Should be called from the writer thread, or on a snapshot.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        LatencyHistogram h = snapshot();
+        return "count=" + h.getCount()
+                + " mean=" + (long) h.getMeanMicros() + "us"
+                + " p50=" + h.getPercentileMicros(50) + "us"
+                + " p99=" + h.getPercentileMicros(99) + "us"
+                + " p99.9=" + h.getPercentileMicros(99.9) + "us"
+                + " max=" + h.getMaxMicros() + "us";
+    }
+}
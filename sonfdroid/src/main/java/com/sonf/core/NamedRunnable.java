@@ -36,9 +36,9 @@ public class NamedRunnable implements Runnable {
         }
 
         try {
-            log.i(newName + " run!!!");
+            log.i("{} run!!!", newName);
             runnable.run();
-            log.i(newName + " quit!!!");
+            log.i("{} quit!!!", newName);
         } finally {
             setName(currentThread, oldName);
         }
@@ -48,7 +48,7 @@ public class NamedRunnable implements Runnable {
         try {
             thread.setName(name);
         } catch (SecurityException e) {
-            log.w("Failed to set the thread name:" + e);
+            log.w("Failed to set the thread name:{}", e);
         }
     }
 }
@@ -0,0 +1,19 @@
+package com.sonf.core;
+
+/**
+ * Listener notified when the thread of an {@link IOProcessor} has been busy for longer
+ * than the stall threshold, typically because a filter or a handler is blocking.
+ * It is called from the stall detector thread while the processor thread is still stuck.
+ */
+public interface StallListener {
+    /**
+     * @param processor the stalled processor
+     * @param stallMs how long the current loop iteration has lasted, in milliseconds
+     * @param sessionId the id of the session being handled, or -1 if none
+     * @param filter the class name of the innermost filter or handler on the processor thread's stack,
+     *               or <tt>null</tt> if none was found
+     * @param stackTrace the stack of the processor thread
+     */
+    void stallDetected(IOProcessor processor, long stallMs, long sessionId, String filter,
+                       StackTraceElement[] stackTrace);
+}
@@ -0,0 +1,43 @@
+package com.sonf.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link Executor} starting a new named platform thread for every task.
+ * Given to a controller, each bee (controller, acceptor, processor) runs on a thread of its own
+ * which ends with it, instead of a pooled thread kept alive by a cached thread pool.
+ * There is nothing to shut down.
+ */
+public class ThreadPerTaskExecutor implements Executor {
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /**
+     * Constructor
+     *
+     * @param prefix the prefix of the thread names, followed by a sequence number
+     * @param daemon <tt>true</tt> if the threads should not prevent the JVM from exiting
+     */
+    public ThreadPerTaskExecutor(String prefix, boolean daemon) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix");
+        }
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new IllegalArgumentException("command");
+        }
+        Thread thread = new Thread(command, prefix + '-' + count.incrementAndGet());
+        thread.setDaemon(daemon);
+        thread.start();
+    }
+}
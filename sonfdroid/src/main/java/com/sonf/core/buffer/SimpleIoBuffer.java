@@ -14,6 +14,20 @@ import java.nio.charset.CoderResult;
 public class SimpleIoBuffer extends IoBuffer{
     private ByteBuffer nioBuffer;
 
+    /**
+     * Copy the remaining bytes of a buffer, leaving its position untouched
+     *
+     * @param buf the buffer to copy
+     * @return a new buffer, ready to be read
+     */
+    public static IoBuffer copyOf(IoBuffer buf) {
+        IoBuffer copy = new SimpleIoBuffer();
+        copy.allocate(buf.remaining());
+        copy.buf().put(buf.buf().duplicate());
+        copy.flip();
+        return copy;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -7,14 +7,18 @@ import com.sonf.core.session.AbstractIOSession;
 import com.sonf.core.session.AttributeKey;
 import com.sonf.core.session.IOSession;
 import com.sonf.core.session.IdleStatus;
+import com.sonf.core.session.ReadQueue;
+import com.sonf.core.trace.FlightEventType;
+import com.sonf.core.trace.FlightRecorder;
 import com.sonf.core.write.IWritePacket;
+import com.sonf.core.write.PooledWritePacket;
 import com.sonf.future.ConnectFuture;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Default implementation of {@link IFilterChain}
@@ -32,7 +36,19 @@ public class DefaultFilterChain implements IFilterChain {
     /** The chain tail */
     private final EntryImpl tail;
     /** The mapping between the filters and their associated name */
-    private final Map<String, Entry> name2entry = new ConcurrentHashMap<String, Entry>();
+    private Map<String, Entry> name2entry;
+    /** The flattened chain the events are dispatched through */
+    private volatile CompiledChain compiled = EMPTY;
+    /**
+     * The shared filters of the chain while it is still the one built by the {@link FilterChainBuilder},
+     * the linked entries are only created on the first modification. <code>null</code> otherwise.
+     */
+    private volatile Template template;
+
+    /** The head and the tail filters don't keep any state, they are shared by all the chains */
+    private static final IFilter HEAD_FILTER = new HeadFilter();
+    private static final IFilter TAIL_FILTER = new TailFilter();
+    private static final CompiledChain EMPTY = new CompiledChain(new String[0], new IFilter[0]);
 
     /**
      * Constructor of DefaultFilterChain .
@@ -45,8 +61,8 @@ public class DefaultFilterChain implements IFilterChain {
             throw new IllegalArgumentException("session");
         }
         this.session = session;
-        head = new EntryImpl(null, null, "head", new HeadFilter());
-        tail = new EntryImpl(head, null, "tail", new TailFilter());
+        head = new EntryImpl(null, null, "head", HEAD_FILTER);
+        tail = new EntryImpl(head, null, "tail", TAIL_FILTER);
         head.nextEntry = tail;
     }
 
@@ -63,6 +79,7 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public synchronized void addLast(String name, IFilter filter) {
+        materialize();
         checkAddable(name);
         register(tail.prevEntry, name, filter);
     }
@@ -72,14 +89,51 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public boolean contains(IFilter filter) {
+        Template t = template;
+        if (t != null) {
+            for (IFilter f : t.filters) {
+                if (f == filter) {
+                    return true;
+                }
+            }
+            return false;
+        }
         return getEntry(filter) != null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean remove(IFilter filter) {
+        materialize();
+        EntryImpl entry = (EntryImpl) getEntry(filter);
+        if (entry == null) {
+            return false;
+        }
+        deregister(entry);
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public synchronized void clear() {
+        Template t = template;
+        if (t != null) {
+            for (int i = 0; i < t.names.length; i++) {
+                notifyPreRemove(t.names[i], t.filters[i]);
+                notifyPostRemove(t.names[i], t.filters[i]);
+            }
+            template = null;
+            compiled = EMPTY;
+            return;
+        }
+
+        if (name2entry == null) {
+            return;
+        }
         List<Entry> list = new ArrayList<Entry>(name2entry.values());
 
         for (Entry entry : list) {
@@ -87,12 +141,60 @@ public class DefaultFilterChain implements IFilterChain {
         }
     }
 
+    /**
+     * Fill an empty chain with the filters of a template, sharing its flattened form.
+     * A chain which isn't empty gets the filters added one by one.
+     *
+     * @param t the template built by the {@link FilterChainBuilder}
+     */
+    synchronized void apply(Template t) {
+        if (template != null || head.nextEntry != tail) {
+            for (int i = 0; i < t.names.length; i++) {
+                addLast(t.names[i], t.filters[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < t.names.length; i++) {
+            notifyPreAdd(t.names[i], t.filters[i]);
+        }
+        template = t;
+        compiled = t.compiled;
+        for (int i = 0; i < t.names.length; i++) {
+            try {
+                t.filters[i].onPostAdd(this, t.names[i]);
+            } catch (Exception e) {
+                materialize();
+                deregister0((EntryImpl) name2entry().get(t.names[i]));
+                throw new RuntimeException("onPostAdd(): " + t.names[i] + ':' + t.filters[i] + " in " + getSession(), e);
+            }
+        }
+    }
+
+    /**
+     * Create the linked entries of the template filters, before the chain is modified
+     */
+    private void materialize() {
+        Template t = template;
+        if (t == null) {
+            return;
+        }
+        for (int i = 0; i < t.names.length; i++) {
+            EntryImpl prevEntry = tail.prevEntry;
+            EntryImpl newEntry = new EntryImpl(prevEntry, tail, t.names[i], t.filters[i]);
+            prevEntry.nextEntry = newEntry;
+            tail.prevEntry = newEntry;
+            name2entry().put(t.names[i], newEntry);
+        }
+        template = null;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void fireSessionOpened() {
-        callNextSessionOpened(head, session);
+        FlightRecorder.getDefault().record(FlightEventType.SESSION_OPENED, session.getId(), -1);
+        callNextSessionOpened(compiled.first(FilterMasks.SESSION_OPENED), session);
     }
 
     /**
@@ -100,7 +202,10 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireSessionClosed() {
-        callNextSessionClosed(head, session);
+        FlightRecorder.getDefault().record(FlightEventType.SESSION_CLOSED, session.getId(), -1);
+        callNextSessionClosed(compiled.first(FilterMasks.SESSION_CLOSED), session);
+        // Update future.
+        session.getCloseFuture().setClosed();
     }
 
     /**
@@ -108,7 +213,8 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireExceptionCaught(Throwable cause) {
-        callNextExceptionCaught(head, session, cause);
+        FlightRecorder.getDefault().record(FlightEventType.EXCEPTION_CAUGHT, session.getId(), -1);
+        callNextExceptionCaught(compiled.first(FilterMasks.EXCEPTION_CAUGHT), session, cause);
     }
 
     /**
@@ -116,8 +222,13 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireMessageSent(IWritePacket packet) {
+        FlightRecorder.getDefault().record(FlightEventType.MESSAGE_SENT, session.getId(),
+                sizeOf(packet.getMessage(), true));
         packet.getFuture().setWritten();
-        callNextMessageSent(head, session, packet);
+        callNextMessageSent(compiled.first(FilterMasks.MESSAGE_SENT), session, packet);
+        if (packet instanceof PooledWritePacket) {
+            ((PooledWritePacket) packet).recycle();
+        }
     }
 
     /**
@@ -125,7 +236,8 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireInputClosed() {
-        callNextInputClosed(head, session);
+        FlightRecorder.getDefault().record(FlightEventType.INPUT_CLOSED, session.getId(), -1);
+        callNextInputClosed(compiled.first(FilterMasks.INPUT_CLOSED), session);
     }
 
     /**
@@ -133,7 +245,8 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireMessageReceived(Object message) {
-        callNextMessageReceived(head, session, message);
+        FlightRecorder.getDefault().record(FlightEventType.MESSAGE_RECEIVED, session.getId(), sizeOf(message, false));
+        callNextMessageReceived(compiled.first(FilterMasks.MESSAGE_RECEIVED), session, message);
     }
 
     /**
@@ -141,7 +254,8 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireFilterClose() {
-        callPreviousFilterClose(tail, session);
+        FlightRecorder.getDefault().record(FlightEventType.FILTER_CLOSE, session.getId(), -1);
+        callPreviousFilterClose(compiled.first(FilterMasks.FILTER_CLOSE), session);
     }
 
     /**
@@ -149,7 +263,9 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireFilterWrite(IWritePacket writePacket) {
-        callPreviousFilterWrite(tail, session, writePacket);
+        FlightRecorder.getDefault().record(FlightEventType.FILTER_WRITE, session.getId(),
+                sizeOf(writePacket.getMessage(), false));
+        callPreviousFilterWrite(compiled.first(FilterMasks.FILTER_WRITE), session, writePacket);
     }
 
     /**
@@ -157,8 +273,22 @@ public class DefaultFilterChain implements IFilterChain {
      */
     @Override
     public void fireSessionIdle(IdleStatus status) {
+        FlightRecorder.getDefault().record(FlightEventType.SESSION_IDLE, session.getId(), -1);
         session.increaseIdleCount(status, SystemClock.elapsedRealtime());
-        callNextSessionIdle(head, session, status);
+        callNextSessionIdle(compiled.first(FilterMasks.SESSION_IDLE), session, status);
+    }
+
+    /**
+     * @return the bytes of a buffer message for the flight recorder, the whole buffer once sent, -1 if not a buffer
+     */
+    private static int sizeOf(Object message, boolean sent) {
+        if (message instanceof IoBuffer) {
+            IoBuffer buf = (IoBuffer) message;
+            if (buf.available()) {
+                return sent ? buf.limit() : buf.remaining();
+            }
+        }
+        return -1;
     }
 
     private void callNextSessionOpened(Entry entry, IOSession session) {
@@ -247,15 +377,12 @@ public class DefaultFilterChain implements IFilterChain {
     private void register(EntryImpl prevEntry, String name, IFilter filter) {
         EntryImpl newEntry = new EntryImpl(prevEntry, prevEntry.nextEntry, name, filter);
 
-        try {
-            filter.onPreAdd(this, name);
-        } catch (Exception e) {
-            throw new RuntimeException("onPreAdd(): " + name + ':' + filter + " in " + getSession(), e);
-        }
+        notifyPreAdd(name, filter);
 
         prevEntry.nextEntry.prevEntry = newEntry;
         prevEntry.nextEntry = newEntry;
-        name2entry.put(name, newEntry);
+        name2entry().put(name, newEntry);
+        compile();
 
         try {
             filter.onPostAdd(this, name);
@@ -265,44 +392,88 @@ public class DefaultFilterChain implements IFilterChain {
         }
     }
 
+    private void notifyPreAdd(String name, IFilter filter) {
+        try {
+            filter.onPreAdd(this, name);
+        } catch (Exception e) {
+            throw new RuntimeException("onPreAdd(): " + name + ':' + filter + " in " + getSession(), e);
+        }
+    }
+
     private void deregister(EntryImpl entry) {
         IFilter filter = entry.getFilter();
 
+        notifyPreRemove(entry.getName(), filter);
+
+        deregister0(entry);
+
+        notifyPostRemove(entry.getName(), filter);
+    }
+
+    private void notifyPreRemove(String name, IFilter filter) {
         try {
-            filter.onPreRemove(this, entry.getName());
+            filter.onPreRemove(this, name);
         } catch (Exception e) {
-            throw new RuntimeException("onPreRemove(): " + entry.getName() + ':' + filter + " in "
+            throw new RuntimeException("onPreRemove(): " + name + ':' + filter + " in "
                     + getSession(), e);
         }
+    }
 
-        deregister0(entry);
-
+    private void notifyPostRemove(String name, IFilter filter) {
         try {
-            filter.onPostRemove(this, entry.getName());
+            filter.onPostRemove(this, name);
         } catch (Exception e) {
-            throw new RuntimeException("onPostRemove(): " + entry.getName() + ':' + filter + " in "
+            throw new RuntimeException("onPostRemove(): " + name + ':' + filter + " in "
                     + getSession(), e);
         }
     }
 
+    /**
+     * Flatten the linked entries, between the head and the tail
+     */
+    private void compile() {
+        if (head.nextEntry == tail) {
+            compiled = EMPTY;
+            return;
+        }
+        List<String> names = new ArrayList<String>();
+        List<IFilter> filters = new ArrayList<IFilter>();
+        for (EntryImpl e = head.nextEntry; e != tail; e = e.nextEntry) {
+            names.add(e.getName());
+            filters.add(e.getFilter());
+        }
+        compiled = new CompiledChain(names.toArray(new String[names.size()]), filters.toArray(new IFilter[filters.size()]));
+    }
+
     private void deregister0(EntryImpl entry) {
         EntryImpl prevEntry = entry.prevEntry;
         EntryImpl nextEntry = entry.nextEntry;
         prevEntry.nextEntry = nextEntry;
         nextEntry.prevEntry = prevEntry;
 
-        name2entry.remove(entry.name);
+        name2entry().remove(entry.name);
+        compile();
     }
 
     /**
      * Checks the specified filter name is already taken and throws an exception if already taken.
      */
     private void checkAddable(String name) {
-        if (name2entry.containsKey(name)) {
+        if (name2entry != null && name2entry.containsKey(name)) {
             throw new IllegalArgumentException("Other filter is using the same name '" + name + "'");
         }
     }
 
+    /**
+     * @return the entries by name, only accessed with the chain locked
+     */
+    private Map<String, Entry> name2entry() {
+        if (name2entry == null) {
+            name2entry = new HashMap<String, Entry>();
+        }
+        return name2entry;
+    }
+
     private Entry getEntry(IFilter filter) {
         EntryImpl e = head.nextEntry;
 
@@ -315,7 +486,7 @@ public class DefaultFilterChain implements IFilterChain {
         return null;
     }
 
-    private class HeadFilter extends IFilterAdapter{
+    private static class HeadFilter extends IFilterAdapter{
         @Override
         public void filterClose(Entry next, IOSession session) {
             ((AbstractIOSession) session).getProcessor().remove(session);
@@ -328,8 +499,7 @@ public class DefaultFilterChain implements IFilterChain {
             }
             if(message instanceof IoBuffer){
                 AbstractIOSession s = (AbstractIOSession) session;
-                s.getWriteQueue().offer(writePacket);
-                s.getProcessor().flush(s);
+                s.getProcessor().write(s, writePacket);
             }else{
                 throw new IOException("Don't know how to handle message of type '"
                         + message.getClass().getName() + "'.  Are you missing a protocol encoder?");
@@ -337,11 +507,11 @@ public class DefaultFilterChain implements IFilterChain {
         }
     }
 
-    private class TailFilter extends IFilterAdapter{
+    private static class TailFilter extends IFilterAdapter{
         @Override
         public void sessionOpened(Entry next, IOSession session) {
             session.setStateReady();
-            session.getController().getHandler().sessionOpened(session);
+            session.getController().getDispatchHandler().sessionOpened(session);
             ConnectFuture future = (ConnectFuture) session.removeAttribute(SESSION_CREATED_FUTURE);
             if (future != null) {
                 future.setConnected();
@@ -352,33 +522,48 @@ public class DefaultFilterChain implements IFilterChain {
         public void sessionClosed(Entry next, IOSession session) {
             session.setStateClosed();
             session.getFilterChain().clear();
-            session.getController().getHandler().sessionClosed(session);
+            ReadQueue readQueue = ((AbstractIOSession) session).getReadQueue();
+            if (readQueue != null) {
+                readQueue.close();
+            }
+            session.getController().getDispatchHandler().sessionClosed(session);
         }
 
         @Override
         public void exceptionCaught(Entry next, IOSession session, Throwable cause){
-            session.getController().getHandler().exceptionCaught(session, cause);
+            FlightRecorder.getDefault().exceptionCaught(session.getId());
+            ReadQueue readQueue = ((AbstractIOSession) session).getReadQueue();
+            if (readQueue != null) {
+                readQueue.offerException(cause);
+            }
+            session.getController().getDispatchHandler().exceptionCaught(session, cause);
         }
 
         @Override
         public void messageSent(Entry next, IOSession session, IWritePacket packet) {
             // Propagate the message
-            session.getController().getHandler().messageSent(session, packet.getOrigMessage());
+            session.getController().getDispatchHandler().messageSent(session, packet.getOrigMessage());
         }
 
         @Override
         public void inputClosed(Entry next, IOSession session){
-            session.getController().getHandler().inputClosed(session);
+            session.getController().getDispatchHandler().inputClosed(session);
         }
 
         @Override
         public void messageReceived(IFilterChain.Entry next, IOSession session, Object message) throws Exception {
-            session.getController().getHandler().messageReceived(session, message);
+            session.getStatistics().increaseReadMessages();
+            ((AbstractIOSession) session).getProcessor().getStatistics().increaseReadMessages();
+            ReadQueue readQueue = ((AbstractIOSession) session).getReadQueue();
+            if (readQueue != null) {
+                readQueue.offerMessage(message);
+            }
+            session.getController().getDispatchHandler().messageReceived(session, message);
         }
 
         @Override
         public void sessionIdle(IFilterChain.Entry next, IOSession session, IdleStatus status) throws Exception {
-            session.getController().getHandler().sessionIdle(session, status);
+            session.getController().getDispatchHandler().sessionIdle(session, status);
         }
     }
 
@@ -423,4 +608,142 @@ public class DefaultFilterChain implements IFilterChain {
             return prevEntry;
         }
     }
+
+    /**
+     * The chain flattened into two arrays, one per direction, rebuilt whenever a filter is added or removed.
+     * A filter is left out of a direction when it handles none of its events. It can't be left out per event:
+     * a filter may forward another event of the same direction to its next entry, as the ProtocolFilter does.
+     * Each event still starts at the first filter which handles it.
+     */
+    private static final class CompiledChain {
+        private final CompiledEntry[] inbound;
+        private final CompiledEntry[] outbound;
+        /** The entry each event starts at, indexed by the bit of the event in {@link FilterMasks} */
+        private final CompiledEntry[] firsts = new CompiledEntry[Integer.SIZE];
+
+        /**
+         * @param names the names of the filters between the head and the tail
+         * @param filters the filters between the head and the tail
+         */
+        private CompiledChain(String[] names, IFilter[] filters) {
+            List<String> in = new ArrayList<String>();
+            List<String> out = new ArrayList<String>();
+            List<IFilter> inFilters = new ArrayList<IFilter>();
+            List<IFilter> outFilters = new ArrayList<IFilter>();
+            List<Integer> inMasks = new ArrayList<Integer>();
+            List<Integer> outMasks = new ArrayList<Integer>();
+            for (int i = -1; i <= names.length; i++) {
+                String name = (i < 0) ? "head" : (i == names.length) ? "tail" : names[i];
+                IFilter filter = (i < 0) ? HEAD_FILTER : (i == names.length) ? TAIL_FILTER : filters[i];
+                int mask = FilterMasks.of(filter);
+                if ((mask & FilterMasks.INBOUND) != 0) {
+                    in.add(name);
+                    inFilters.add(filter);
+                    inMasks.add(mask);
+                }
+                if ((mask & FilterMasks.OUTBOUND) != 0) {
+                    out.add(name);
+                    outFilters.add(filter);
+                    outMasks.add(mask);
+                }
+            }
+            inbound = flatten(in, inFilters);
+            outbound = flatten(out, outFilters);
+
+            for (int event = 1; event <= FilterMasks.FILTER_WRITE; event <<= 1) {
+                CompiledEntry first = null;
+                if ((event & FilterMasks.INBOUND) != 0) {
+                    for (int i = 0; i < inbound.length && first == null; i++) {
+                        if ((inMasks.get(i) & event) != 0) {
+                            first = inbound[i];
+                        }
+                    }
+                } else {
+                    for (int i = outbound.length - 1; i >= 0 && first == null; i--) {
+                        if ((outMasks.get(i) & event) != 0) {
+                            first = outbound[i];
+                        }
+                    }
+                }
+                firsts[Integer.numberOfTrailingZeros(event)] = first;
+            }
+        }
+
+        private static CompiledEntry[] flatten(List<String> names, List<IFilter> filters) {
+            CompiledEntry[] array = new CompiledEntry[names.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = new CompiledEntry(names.get(i), filters.get(i), array, i);
+            }
+            return array;
+        }
+
+        /**
+         * @param event an event of {@link FilterMasks}
+         * @return the entry the event starts at
+         */
+        private Entry first(int event) {
+            return firsts[Integer.numberOfTrailingZeros(event)];
+        }
+    }
+
+    /**
+     * The filters a {@link FilterChainBuilder} selected for some sessions, flattened once and shared
+     * by the chains of all these sessions
+     */
+    static final class Template {
+        private final String[] names;
+        private final IFilter[] filters;
+        private final CompiledChain compiled;
+
+        /**
+         * @param entries the entries of the builder selected for the sessions
+         */
+        Template(List<Entry> entries) {
+            names = new String[entries.size()];
+            filters = new IFilter[entries.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = entries.get(i).getName();
+                filters[i] = entries.get(i).getFilter();
+            }
+            compiled = new CompiledChain(names, filters);
+        }
+    }
+
+    /**
+     * An entry of a {@link CompiledChain}, linked to its neighbours in the array of its direction
+     */
+    private static final class CompiledEntry implements Entry {
+        private final String name;
+        private final IFilter filter;
+        private final CompiledEntry[] array;
+        private final int index;
+
+        private CompiledEntry(String name, IFilter filter, CompiledEntry[] array, int index) {
+            this.name = name;
+            this.filter = filter;
+            this.array = array;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public IFilter getFilter() {
+            return filter;
+        }
+
+        @Override
+        public Entry getNextEntry() {
+            int next = index + 1;
+            return (next < array.length) ? array[next] : null;
+        }
+
+        @Override
+        public Entry getPrevEntry() {
+            return (index > 0) ? array[index - 1] : null;
+        }
+    }
 }
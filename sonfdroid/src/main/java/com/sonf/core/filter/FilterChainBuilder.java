@@ -2,32 +2,49 @@ package com.sonf.core.filter;
 
 import com.sonf.core.filter.IFilterChain.Entry;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FilterChainBuilder {
 
     private final List<Entry> entries;
 
+    /** The templates of the current entries, replaced whenever the entries change */
+    private volatile Templates templates;
+
     /**
      * Creates a new instance with an empty filter list.
      */
     public FilterChainBuilder() {
         entries = new CopyOnWriteArrayList<Entry>();
+        templates = new Templates(entries);
     }
 
     /**
-     * Build a session's filter chain, add filters into chain one by one
+     * Build a session's filter chain.
+     * The sessions for which the matcher selects the same filters share one template
+     * of their chain, the per-session entries are only created if the chain is modified later.
+     * Other chain implementations get the filters added one by one.
+     *
      * @param matcher IFilterChainMatcher used for choice filter for session
      * @param chain session's filter chain
      */
     public void buildChain(IFilterChainMatcher matcher, IFilterChain chain){
-        for (Entry e : entries) {
-            if((matcher == null)
-                || (matcher.isMatched(chain.getSession(), e.getName()))){
-                chain.addLast(e.getName(), e.getFilter());
+        Templates current = templates;
+        if (!(chain instanceof DefaultFilterChain)) {
+            for (Entry e : current.entries) {
+                if((matcher == null)
+                    || (matcher.isMatched(chain.getSession(), e.getName()))){
+                    chain.addLast(e.getName(), e.getFilter());
+                }
             }
+            return;
         }
+        ((DefaultFilterChain) chain).apply(current.get(matcher, chain));
     }
 
     /**
@@ -38,6 +55,7 @@ public class FilterChainBuilder {
      */
     public synchronized void add(String name, IFilter filter) {
         register(entries.size(), new EntryImpl(name, filter));
+        templates = new Templates(entries);
     }
 
     /**
@@ -73,6 +91,47 @@ public class FilterChainBuilder {
      */
     public synchronized void clear() {
         entries.clear();
+        templates = new Templates(entries);
+    }
+
+    /**
+     * The chain templates of a snapshot of the entries, keyed by the entries selected by the matcher
+     */
+    private static final class Templates {
+        private final Entry[] entries;
+        private final DefaultFilterChain.Template all;
+        private final ConcurrentMap<BitSet, DefaultFilterChain.Template> selected =
+                new ConcurrentHashMap<BitSet, DefaultFilterChain.Template>();
+
+        private Templates(List<Entry> entries) {
+            this.entries = entries.toArray(new Entry[entries.size()]);
+            all = new DefaultFilterChain.Template(entries);
+        }
+
+        private DefaultFilterChain.Template get(IFilterChainMatcher matcher, IFilterChain chain) {
+            if (matcher == null) {
+                return all;
+            }
+            BitSet key = new BitSet(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                if (matcher.isMatched(chain.getSession(), entries[i].getName())) {
+                    key.set(i);
+                }
+            }
+            DefaultFilterChain.Template template = selected.get(key);
+            if (template == null) {
+                List<Entry> list = new ArrayList<Entry>();
+                for (int i = key.nextSetBit(0); i >= 0; i = key.nextSetBit(i + 1)) {
+                    list.add(entries[i]);
+                }
+                template = new DefaultFilterChain.Template(list);
+                DefaultFilterChain.Template old = selected.putIfAbsent(key, template);
+                if (old != null) {
+                    template = old;
+                }
+            }
+            return template;
+        }
     }
 
     private final class EntryImpl implements Entry {
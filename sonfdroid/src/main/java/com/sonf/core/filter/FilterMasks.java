@@ -0,0 +1,91 @@
+package com.sonf.core.filter;
+
+import com.sonf.core.filter.IFilterChain.Entry;
+import com.sonf.core.session.IOSession;
+import com.sonf.core.session.IdleStatus;
+import com.sonf.core.write.IWritePacket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The events a filter class handles, one bit per {@link IFilter} event method.
+ * A method inherited from {@link IFilterAdapter} only forwards the event, so its bit is clear.
+ */
+final class FilterMasks {
+    static final int SESSION_OPENED = 1;
+    static final int SESSION_CLOSED = 1 << 1;
+    static final int EXCEPTION_CAUGHT = 1 << 2;
+    static final int MESSAGE_SENT = 1 << 3;
+    static final int INPUT_CLOSED = 1 << 4;
+    static final int MESSAGE_RECEIVED = 1 << 5;
+    static final int SESSION_IDLE = 1 << 6;
+    static final int FILTER_CLOSE = 1 << 7;
+    static final int FILTER_WRITE = 1 << 8;
+
+    /** The events going from the head to the tail */
+    static final int INBOUND = SESSION_OPENED | SESSION_CLOSED | EXCEPTION_CAUGHT | MESSAGE_SENT
+            | INPUT_CLOSED | MESSAGE_RECEIVED | SESSION_IDLE;
+    /** The events going from the tail to the head */
+    static final int OUTBOUND = FILTER_CLOSE | FILTER_WRITE;
+
+    private static final ConcurrentMap<Class<?>, Integer> masks = new ConcurrentHashMap<Class<?>, Integer>();
+
+    private FilterMasks() {
+    }
+
+    /**
+     * @param filter the filter
+     * @return the events handled by the class of the filter
+     */
+    static int of(IFilter filter) {
+        Class<?> type = filter.getClass();
+        Integer mask = masks.get(type);
+        if (mask == null) {
+            mask = compute(type);
+            masks.put(type, mask);
+        }
+        return mask;
+    }
+
+    private static int compute(Class<?> type) {
+        int mask = 0;
+        if (handles(type, "sessionOpened", Entry.class, IOSession.class)) {
+            mask |= SESSION_OPENED;
+        }
+        if (handles(type, "sessionClosed", Entry.class, IOSession.class)) {
+            mask |= SESSION_CLOSED;
+        }
+        if (handles(type, "exceptionCaught", Entry.class, IOSession.class, Throwable.class)) {
+            mask |= EXCEPTION_CAUGHT;
+        }
+        if (handles(type, "messageSent", Entry.class, IOSession.class, IWritePacket.class)) {
+            mask |= MESSAGE_SENT;
+        }
+        if (handles(type, "inputClosed", Entry.class, IOSession.class)) {
+            mask |= INPUT_CLOSED;
+        }
+        if (handles(type, "messageReceived", Entry.class, IOSession.class, Object.class)) {
+            mask |= MESSAGE_RECEIVED;
+        }
+        if (handles(type, "sessionIdle", Entry.class, IOSession.class, IdleStatus.class)) {
+            mask |= SESSION_IDLE;
+        }
+        if (handles(type, "filterClose", Entry.class, IOSession.class)) {
+            mask |= FILTER_CLOSE;
+        }
+        if (handles(type, "filterWrite", Entry.class, IOSession.class, IWritePacket.class)) {
+            mask |= FILTER_WRITE;
+        }
+        return mask;
+    }
+
+    private static boolean handles(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes).getDeclaringClass() != IFilterAdapter.class;
+        } catch (Exception e) {
+            // Can't tell, keep it in the path
+            return true;
+        }
+    }
+}
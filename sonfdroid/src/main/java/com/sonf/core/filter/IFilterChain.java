@@ -25,6 +25,15 @@ public interface IFilterChain {
      */
     boolean contains(IFilter filter);
 
+    /**
+     * Removes the specified filter from this chain.
+     *
+     * @param filter The filter to remove
+     *
+     * @return <tt>false</tt> if this chain doesn't contain the specified <tt>filter</tt>.
+     */
+    boolean remove(IFilter filter);
+
     /**
      * Removes all filters added to this chain.
      */
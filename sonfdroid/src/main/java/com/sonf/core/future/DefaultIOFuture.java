@@ -4,6 +4,8 @@ import android.os.SystemClock;
 
 import com.sonf.core.session.IOSession;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,6 +26,9 @@ public class DefaultIOFuture implements IOFuture {
 
     private IoFutureListener<DefaultIOFuture> listener;
 
+    /** The listeners added by {@link #addListener(IoFutureListener)}, only changed under the lock until ready */
+    private List<IoFutureListener> addedListeners;
+
     /**
      * Constructor
      * @param session session associated with thi future
@@ -121,11 +126,31 @@ public class DefaultIOFuture implements IOFuture {
     @Override
     public void setListener(IoFutureListener listener) {
         this.listener = listener;
-        if(isDone()){
-            notifyListener();
+        if(isDone() && listener != null){
+            listener.onComplete(this);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(IoFutureListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+        synchronized (lock) {
+            if (!ready) {
+                if (addedListeners == null) {
+                    addedListeners = new ArrayList<IoFutureListener>(2);
+                }
+                addedListeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -135,6 +160,15 @@ public class DefaultIOFuture implements IOFuture {
     }
 
     private void notifyListener() {
+        List<IoFutureListener> added;
+        synchronized (lock) {
+            added = addedListeners;
+        }
+        if (added != null) {
+            for (IoFutureListener l : added) {
+                l.onComplete(this);
+            }
+        }
         if (listener != null) {
             listener.onComplete(this);
         }
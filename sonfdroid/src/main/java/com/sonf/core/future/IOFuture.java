@@ -71,6 +71,15 @@ public interface IOFuture {
      */
     void setListener(IoFutureListener listener);
 
+    /**
+     * Add a <tt>listener</tt> which is notified when this future is completed,
+     * before the one of {@link #setListener(IoFutureListener)}, which neither replaces nor removes it.
+     * If the listener is added after the completion, the listener is directly notified.
+     *
+     * @param listener The listener to add
+     */
+    void addListener(IoFutureListener listener);
+
     /**
      * Removes an existing <tt>listener</tt>
      */
@@ -0,0 +1,119 @@
+package com.sonf.core.future;
+
+import com.sonf.core.session.IOSession;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The future shared by the writes nobody waits for, see {@link IOSession#writeVoid(Object)}.
+ * Its result is dropped: it is never done, and can't be awaited nor listened to.
+ * A failed write is still reported by <tt>exceptionCaught</tt>.
+ */
+public final class VoidWriteFuture implements IWriteFuture {
+    /** The single instance */
+    public static final VoidWriteFuture INSTANCE = new VoidWriteFuture();
+
+    private VoidWriteFuture() {
+    }
+
+    /**
+     * @return <code>null</code>, the future is shared by all the sessions
+     */
+    @Override
+    public IOSession getSession() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWritten() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWritten() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setException(Throwable exception) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Throwable getException() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitUninterruptibly() {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void await() throws InterruptedException {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setListener(IoFutureListener listener) {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener(IoFutureListener listener) {
+        throw new IllegalStateException("void future");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener() {
+    }
+}
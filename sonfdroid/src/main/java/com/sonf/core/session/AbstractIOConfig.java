@@ -1,6 +1,7 @@
 package com.sonf.core.session;
 
 import com.sonf.core.RuntimeIoException;
+import com.sonf.core.write.WritePriority;
 
 import java.lang.reflect.Constructor;
 import java.net.Socket;
@@ -33,6 +34,23 @@ public abstract class AbstractIOConfig implements IOConfig {
     /** The delay to wait for a write operation to complete before bailing out */
     private long writeTimeoutInMillis = 60 * 1000L;
 
+    /** The number of received messages kept for the read operation, 0 if disabled */
+    private int readQueueCapacity;
+
+    /** The weight of each write lane, null for the strict priority */
+    private int[] writeWeights;
+
+    /** The messages overtaking a lower write lane in a row, with the strict priority */
+    private int writeStarvationLimit = 16;
+
+    /** Counts the changes, a snapshot taken before the last one is stale */
+    private volatile int modCount;
+    /** Set on a snapshot, which sessions share and nobody may change */
+    private boolean frozen;
+    /** The last snapshot of this config, and the modCount it was taken at */
+    private AbstractIOConfig snapshot;
+    private int snapshotModCount;
+
     /**
      * {@inheritDoc}
      */
@@ -46,6 +64,7 @@ public abstract class AbstractIOConfig implements IOConfig {
      */
     @Override
     public void setReadBufferSize(int readBufferSize) {
+        modified();
         if (readBufferSize <= 0) {
             throw new IllegalArgumentException("readBufferSize: " + readBufferSize + " (expected: 1+)");
         }
@@ -65,6 +84,7 @@ public abstract class AbstractIOConfig implements IOConfig {
      */
     @Override
     public void setMaxWriteBytes(int maxWriteBytes) {
+        modified();
         this.maxWriteBytes = maxWriteBytes;
     }
 
@@ -109,6 +129,9 @@ public abstract class AbstractIOConfig implements IOConfig {
             setIdleTimeInMillis(IdleStatus.READER_IDLE, imp.getIdleTimeInMillis(IdleStatus.READER_IDLE));
             setIdleTimeInMillis(IdleStatus.WRITER_IDLE, imp.getIdleTimeInMillis(IdleStatus.WRITER_IDLE));
             setWriteTimeoutInMillis(imp.getWriteTimeoutInMillis());
+            setReadQueueCapacity(imp.getReadQueueCapacity());
+            setWriteWeights(imp.writeWeights());
+            setWriteStarvationLimit(imp.getWriteStarvationLimit());
             setReceiveBufferSize(imp.getReceiveBufferSize());
             setSendBufferSize(imp.getSendBufferSize());
         }else{
@@ -135,6 +158,38 @@ public abstract class AbstractIOConfig implements IOConfig {
         }
     }
 
+    /**
+     * Gives a copy of this config which can't be changed, the same one until this config changes.
+     * The sessions prepared in between share it, while a later change only applies to the next sessions.
+     *
+     * @return the snapshot of this config, or this config if it is a snapshot itself
+     */
+    public final synchronized AbstractIOConfig snapshot() {
+        if (frozen) {
+            return this;
+        }
+        int count = modCount;
+        if (snapshot == null || snapshotModCount != count) {
+            AbstractIOConfig copy = clone();
+            copy.frozen = true;
+            snapshot = copy;
+            snapshotModCount = count;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Called by each setter before the change
+     *
+     * @throws IllegalStateException if this config is a snapshot
+     */
+    protected final void modified() {
+        if (frozen) {
+            throw new IllegalStateException("a config snapshot can't be changed, see IOSession.getConfig()");
+        }
+        modCount++;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -160,6 +215,7 @@ public abstract class AbstractIOConfig implements IOConfig {
      */
     @Override
     public void setIdleTimeInMillis(IdleStatus status, long idleTimeInMillis) {
+        modified();
         if (idleTimeInMillis < 0) {
             throw new IllegalArgumentException("Illegal idle time: " + idleTimeInMillis);
         }
@@ -188,9 +244,86 @@ public abstract class AbstractIOConfig implements IOConfig {
      */
     @Override
     public void setWriteTimeoutInMillis(long writeTimeoutInMillis) {
+        modified();
         if (writeTimeoutInMillis < 0) {
             throw new IllegalArgumentException("Illegal write timeout: " + writeTimeoutInMillis);
         }
         this.writeTimeoutInMillis = writeTimeoutInMillis;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getReadQueueCapacity() {
+        return readQueueCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setReadQueueCapacity(int readQueueCapacity) {
+        modified();
+        if (readQueueCapacity < 0) {
+            throw new IllegalArgumentException("readQueueCapacity: " + readQueueCapacity + " (expected: 0+)");
+        }
+        this.readQueueCapacity = readQueueCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getWriteWeights() {
+        return (writeWeights == null) ? null : writeWeights.clone();
+    }
+
+    /**
+     * @return the write weights without copy, for the processor polling the write queue
+     */
+    int[] writeWeights() {
+        return writeWeights;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteWeights(int... weights) {
+        modified();
+        if (weights != null) {
+            if (weights.length != WritePriority.values().length) {
+                throw new IllegalArgumentException("weights: " + weights.length + " (expected: "
+                        + WritePriority.values().length + " lanes)");
+            }
+            for (int weight : weights) {
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("weight: " + weight + " (expected: 1+)");
+                }
+            }
+            weights = weights.clone();
+        }
+        this.writeWeights = weights;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteStarvationLimit() {
+        return writeStarvationLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteStarvationLimit(int writeStarvationLimit) {
+        modified();
+        if (writeStarvationLimit < 0) {
+            throw new IllegalArgumentException("writeStarvationLimit: " + writeStarvationLimit + " (expected: 0+)");
+        }
+        this.writeStarvationLimit = writeStarvationLimit;
+    }
 }
@@ -5,6 +5,7 @@ import android.os.SystemClock;
 
 import com.sonf.core.IOController;
 import com.sonf.core.IOProcessor;
+import com.sonf.core.IoStatistics;
 import com.sonf.core.buffer.IoBuffer;
 import com.sonf.core.buffer.SimpleIoBuffer;
 import com.sonf.core.filter.DefaultFilterChain;
@@ -14,25 +15,34 @@ import com.sonf.core.future.ICloseFuture;
 import com.sonf.core.future.IConnectFuture;
 import com.sonf.core.future.IOFuture;
 import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.future.IoFutureListener;
 import com.sonf.core.write.IWritePacket;
 import com.sonf.core.write.WriteException;
+import com.sonf.core.write.PooledWritePacket;
 import com.sonf.core.write.WritePacket;
+import com.sonf.core.write.WriteLanes;
+import com.sonf.core.write.WritePriority;
 import com.sonf.core.write.WriteTimeOutException;
+import com.sonf.polling.AbstractPollingIoProcessor;
 import com.sonf.socket.AbstractSocketConfig;
 
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *  Base implementation of {@link IOSession}
@@ -40,12 +50,32 @@ import java.util.concurrent.atomic.AtomicReference;
 public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> implements IOSession<CH, CG> {
     /** An id generator guaranteed to generate unique IDs for the session */
     private static AtomicLong idGenerator = new AtomicLong(0L);
+
+    // Updaters rather than atomic objects, a server may hold a lot of sessions
+    private static final AtomicReferenceFieldUpdater<AbstractIOSession, SState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractIOSession.class, SState.class, "state");
+    private static final AtomicReferenceFieldUpdater<AbstractIOSession, WriteLanes> WRITE_QUEUE =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractIOSession.class, WriteLanes.class, "writePacketQueue");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> WRITE_BATCHES =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "writeBatches");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> SCHEDULED_FOR_FLUSH =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "scheduledForFlush");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> READ_SUSPENSION =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "readSuspension");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> IDLE_COUNT_FOR_BOTH =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "idleCountForBoth");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> IDLE_COUNT_FOR_READ =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "idleCountForRead");
+    private static final AtomicIntegerFieldUpdater<AbstractIOSession> IDLE_COUNT_FOR_WRITE =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractIOSession.class, "idleCountForWrite");
+
     /** The session ID */
     private long sessionId;
     /** The communication channel */
     private CH channel;
-    /** The session config */
+    /** The session config, may be a snapshot shared with other sessions until {@link #getConfig()} is called */
     private CG config;
+    private boolean configShared;
     /** The controller which will manage this session */
     private IOController controller;
     /** The NioSession processor */
@@ -53,24 +83,32 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
 
     private final Object lock = new Object();
     private IOSessionAttribute attributeMap;
-    private Queue<IWritePacket> writePacketQueue;
+    /** Created by the first write, polled by the processor only */
+    private volatile WriteLanes writePacketQueue;
     private IWritePacket currentWritePacket;
+    /** The received messages kept for read(), null if the config disables it */
+    private volatile ReadQueue readQueue;
     /** The FilterChain created for this session */
     private final IFilterChain filterChain;
     private IFilterChainMatcher filterChainMatcher = null;
     // Status variables
-    private final AtomicBoolean scheduledForFlush = new AtomicBoolean();
+    private volatile int scheduledForFlush;
+    /** The number of writeAll() in progress, the processor doesn't flush meanwhile */
+    private volatile int writeBatches;
+    /** The {@link ReadSuspension} bits currently set */
+    private volatile int readSuspension;
+    private volatile boolean writeSuspended;
 
-    /** The read IoBuffer */
-    private IoBuffer readIoBuffer = new SimpleIoBuffer();
+    /** The read IoBuffer, created by the first read */
+    private IoBuffer readIoBuffer;
 
-    private long lastReadTime;
-    private long lastWriteTime;
-    private AtomicInteger idleCountForBoth = new AtomicInteger();
+    /** The I/O counters, also holding the last read and write times */
+    private final IoStatistics statistics = new IoStatistics();
+    private volatile int idleCountForBoth;
 
-    private AtomicInteger idleCountForRead = new AtomicInteger();
+    private volatile int idleCountForRead;
 
-    private AtomicInteger idleCountForWrite = new AtomicInteger();
+    private volatile int idleCountForWrite;
 
     private long lastIdleTimeForBoth;
 
@@ -80,10 +118,11 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
 
     /**
      * An internal write request object that triggers session close.
+     * It is polled once all the lanes of the write queue are flushed.
      *
      * @see #writePacketQueue
      */
-    public static final WritePacket CLOSE_REQUEST = new WritePacket(new Object(), null);
+    public static final WritePacket CLOSE_REQUEST = new WritePacket(new Object(), null, WritePriority.LOW);
 
 
     private enum SState{
@@ -111,7 +150,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
         }
     }
 
-    private AtomicReference<SState> stateRef = new AtomicReference<SState>(SState.NEW);
+    private volatile SState state = SState.NEW;
 
     /**
      * Constructor
@@ -139,8 +178,8 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
 
 
     private void _SWITCH_STATE_(SState expected, SState set){
-        if(false == stateRef.compareAndSet(expected, set)){
-            throw new RuntimeException("Unexpected Session state:" + stateRef.get() + " when set from " + expected + " to " + set + "!");
+        if(false == STATE.compareAndSet(this, expected, set)){
+            throw new RuntimeException("Unexpected Session state:" + state + " when set from " + expected + " to " + set + "!");
         }
     }
 
@@ -159,9 +198,9 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      * @param curElapsedTime The current time ({@link SystemClock#elapsedRealtime()()})
      */
     public final void updateWrittenTime(long curElapsedTime) {
-        lastWriteTime = curElapsedTime;
-        idleCountForBoth.set(0);
-        idleCountForWrite.set(0);
+        statistics.setLastWriteTime(curElapsedTime);
+        idleCountForBoth = 0;
+        idleCountForWrite = 0;
     }
 
     /**
@@ -170,9 +209,9 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      * * @param curElapsedTime The current time ({@link SystemClock#elapsedRealtime()()})
      */
     public final void updateReadTime(long curElapsedTime) {
-        lastReadTime = curElapsedTime;
-        idleCountForBoth.set(0);
-        idleCountForRead.set(0);
+        statistics.setLastReadTime(curElapsedTime);
+        idleCountForBoth = 0;
+        idleCountForRead = 0;
     }
 
     private final long getLastIdleTime(IdleStatus status) {
@@ -192,15 +231,15 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
     }
 
     private final long getLastIoTime() {
-        return Math.max(lastReadTime, lastWriteTime);
+        return Math.max(statistics.getLastReadTime(), statistics.getLastWriteTime());
     }
 
     private final long getLastReadTime() {
-        return lastReadTime;
+        return statistics.getLastReadTime();
     }
 
     private final long getLastWriteTime() {
-        return lastWriteTime;
+        return statistics.getLastWriteTime();
     }
 
     /**
@@ -210,13 +249,13 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      * @param curElapsedTime the current elapsed real time ({@link SystemClock#elapsedRealtime()()})
      */
     public void notifyIdleSession(long curElapsedTime) {
-        notifyIdleSession0(curElapsedTime, getConfig().getIdleTimeInMillis(IdleStatus.BOTH_IDLE),
+        notifyIdleSession0(curElapsedTime, getEffectiveConfig().getIdleTimeInMillis(IdleStatus.BOTH_IDLE),
                 IdleStatus.BOTH_IDLE, Math.max(getLastIoTime(), getLastIdleTime(IdleStatus.BOTH_IDLE)));
 
-        notifyIdleSession0(curElapsedTime, getConfig().getIdleTimeInMillis(IdleStatus.READER_IDLE),
+        notifyIdleSession0(curElapsedTime, getEffectiveConfig().getIdleTimeInMillis(IdleStatus.READER_IDLE),
                 IdleStatus.READER_IDLE, Math.max(getLastReadTime(), getLastIdleTime(IdleStatus.READER_IDLE)));
 
-        notifyIdleSession0(curElapsedTime, getConfig().getIdleTimeInMillis(IdleStatus.WRITER_IDLE),
+        notifyIdleSession0(curElapsedTime, getEffectiveConfig().getIdleTimeInMillis(IdleStatus.WRITER_IDLE),
                 IdleStatus.WRITER_IDLE, Math.max(getLastWriteTime(), getLastIdleTime(IdleStatus.WRITER_IDLE)));
 
         notifyWriteTimeout(curElapsedTime);
@@ -230,7 +269,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
     }
 
     private void notifyWriteTimeout(long curElapsedTime) {
-        long writeTimeout = getConfig().getWriteTimeoutInMillis();
+        long writeTimeout = getEffectiveConfig().getWriteTimeoutInMillis();
         //if ((writeTimeout > 0) && (curElapsedTime - getLastWriteTime() >= writeTimeout)
         //        && !getWriteQueue().isEmpty()) {
             IWritePacket packet = getCurrentWritePacket();
@@ -253,13 +292,13 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     public void increaseIdleCount(IdleStatus status, long curElapsedTime) {
         if (status == IdleStatus.BOTH_IDLE) {
-            idleCountForBoth.incrementAndGet();
+            IDLE_COUNT_FOR_BOTH.incrementAndGet(this);
             lastIdleTimeForBoth = curElapsedTime;
         } else if (status == IdleStatus.READER_IDLE) {
-            idleCountForRead.incrementAndGet();
+            IDLE_COUNT_FOR_READ.incrementAndGet(this);
             lastIdleTimeForRead = curElapsedTime;
         } else if (status == IdleStatus.WRITER_IDLE) {
-            idleCountForWrite.incrementAndGet();
+            IDLE_COUNT_FOR_WRITE.incrementAndGet(this);
             lastIdleTimeForWrite = curElapsedTime;
         } else {
             throw new IllegalArgumentException("Unknown idle status: " + status);
@@ -272,11 +311,11 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
     @Override
     public int getIdleCount(IdleStatus status){
         if (status == IdleStatus.BOTH_IDLE) {
-            return idleCountForBoth.get();
+            return idleCountForBoth;
         } else if (status == IdleStatus.READER_IDLE) {
-            return idleCountForRead.get();
+            return idleCountForRead;
         } else if (status == IdleStatus.WRITER_IDLE) {
-            return idleCountForWrite.get();
+            return idleCountForWrite;
         } else {
             throw new IllegalArgumentException("Unknown idle status: " + status);
         }
@@ -287,7 +326,10 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public IoBuffer getReadIOBuffer(){
-        synchronized (readIoBuffer){
+        synchronized (lock){
+            if (readIoBuffer == null) {
+                readIoBuffer = new SimpleIoBuffer();
+            }
             if(!readIoBuffer.available()){
                 readIoBuffer.allocate(config.getReadBufferSize());
             }
@@ -322,14 +364,21 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
     /**
      * Prepare data right before adding to Polling processor
      */
+    @SuppressWarnings("unchecked")
     public void prepare(){
-        stateRef.set(SState.CONNECTTED);
+        state = SState.CONNECTTED;
+        synchronized (lock) {
+            if (configShared) {
+                // Later changes of the shared config only apply to the sessions prepared after
+                config = (CG) config.snapshot();
+            }
+        }
         applySessionConfig();
         prepareAttributeMap();
-        prepareWriteQueue();
+        prepareReadQueue();
         long elapsedTime = SystemClock.elapsedRealtime();
-        lastReadTime = elapsedTime;
-        lastWriteTime = elapsedTime;
+        statistics.setLastReadTime(elapsedTime);
+        statistics.setLastWriteTime(elapsedTime);
         lastIdleTimeForBoth = elapsedTime;
         lastIdleTimeForRead = elapsedTime;
         lastIdleTimeForWrite = elapsedTime;
@@ -340,8 +389,17 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
         this.attributeMap = new DefaultAttributeMap();
     }
 
-    private void prepareWriteQueue(){
-        writePacketQueue = new ConcurrentLinkedQueue<IWritePacket>();
+    private void prepareReadQueue(){
+        int capacity = config.getReadQueueCapacity();
+        readQueue = (capacity > 0) ? new ReadQueue(this, capacity) : null;
+    }
+
+    /**
+     * @return the queue of the received messages kept for {@link #read(long)},
+     *          <code>null</code> if the read operation is disabled
+     */
+    public final ReadQueue getReadQueue(){
+        return readQueue;
     }
 
     /**
@@ -365,7 +423,111 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public Queue<IWritePacket> getWriteQueue(){
-        return writePacketQueue;
+        return writeQueue();
+    }
+
+    private WriteLanes writeQueue(){
+        WriteLanes queue = writePacketQueue;
+        if (queue == null) {
+            WRITE_QUEUE.compareAndSet(this, null, new WriteLanes());
+            queue = writePacketQueue;
+        }
+        return queue;
+    }
+
+    /**
+     * @return <tt>true</tt> if there is no packet waiting in the write queue
+     */
+    public final boolean isWriteQueueEmpty() {
+        WriteLanes queue = writePacketQueue;
+        return queue == null || queue.isEmpty();
+    }
+
+    /**
+     * Offer a packet to the write queue, counting it into the scheduled write statistics.
+     *
+     * @param packet the packet to be written
+     */
+    public final void offerWritePacket(IWritePacket packet) {
+        int size = scheduledSizeOf(packet);
+        writeQueue().offer(packet);
+        if (size >= 0) {
+            statistics.increaseScheduledWrite(size, 1);
+            processor.getStatistics().increaseScheduledWrite(size, 1);
+        }
+    }
+
+    /**
+     * Poll a packet from the write queue, removing it from the scheduled write statistics.
+     * The lane it comes from is chosen by the write scheduling of the session config.
+     *
+     * @return the next packet to write, or <tt>null</tt> if the queue is empty
+     */
+    public final IWritePacket pollWritePacket() {
+        WriteLanes queue = writePacketQueue;
+        if (queue == null) {
+            return null;
+        }
+        CG config = getEffectiveConfig();
+        int[] weights = config.writeWeights();
+        int starvationLimit = config.getWriteStarvationLimit();
+        IWritePacket packet = queue.poll(weights, starvationLimit);
+        while (packet == CLOSE_REQUEST && !queue.isEmpty()) {
+            // Another lane isn't flushed yet, close after it
+            queue.offer(packet);
+            packet = queue.poll(weights, starvationLimit);
+        }
+        int size = scheduledSizeOf(packet);
+        if (size >= 0) {
+            statistics.increaseScheduledWrite(-size, -1);
+            processor.getStatistics().increaseScheduledWrite(-size, -1);
+        }
+        return packet;
+    }
+
+    /**
+     * Poll all the packets of the write queue at once, removing them from the scheduled write statistics.
+     *
+     * @param packets the list to add the packets to
+     * @return the number of packets added
+     */
+    public final int drainWritePackets(List<IWritePacket> packets) {
+        WriteLanes queue = writePacketQueue;
+        if (queue == null) {
+            return 0;
+        }
+        int from = packets.size();
+        int n = queue.drainTo(packets);
+        int bytes = 0;
+        int messages = 0;
+        for (int i = from; i < from + n; i++) {
+            int size = scheduledSizeOf(packets.get(i));
+            if (size >= 0) {
+                bytes += size;
+                messages++;
+            }
+        }
+        if (messages > 0) {
+            statistics.increaseScheduledWrite(-bytes, -messages);
+            processor.getStatistics().increaseScheduledWrite(-bytes, -messages);
+        }
+        return n;
+    }
+
+    private static int scheduledSizeOf(IWritePacket packet) {
+        if (packet == null || packet == CLOSE_REQUEST) {
+            return -1;
+        }
+        Object message = packet.getMessage();
+        return (message instanceof IoBuffer) ? ((IoBuffer) message).remaining() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final IoStatistics getStatistics() {
+        return statistics;
     }
 
     /**
@@ -396,17 +558,51 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public void setConfig(CG config){
-        this.config = config;
+        synchronized (lock) {
+            this.config = config;
+            this.configShared = false;
+        }
     }
 
     /**
      * {@inheritDoc}
+     *
+     * A session sharing a config, see {@link #shareConfig(AbstractIOConfig)}, gets its own copy here.
      */
     @Override
     public CG getConfig(){
+        synchronized (lock) {
+            if (configShared) {
+                config = copySessionConfig(config);
+                configShared = false;
+            }
+            return config;
+        }
+    }
+
+    /**
+     * Gives the config in use without copying a shared one, it must not be modified.
+     *
+     * @return the config of this session, or the one of its controller
+     */
+    public final CG getEffectiveConfig(){
         return config;
     }
 
+    /**
+     * Use a config shared with other sessions, usually the one of the controller, instead of a config
+     * of its own. It is never changed through this session: {@link #prepare()} keeps a snapshot of it,
+     * shared with the other sessions prepared since it last changed, and {@link #getConfig()} gives a copy.
+     *
+     * @param config the shared config
+     */
+    public final void shareConfig(CG config){
+        synchronized (lock) {
+            this.config = config;
+            this.configShared = true;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -417,7 +613,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
         if(controller.connect(f)){
             setConnectDeadLine();
         }else{
-            stateRef.set(SState.INVALID);
+            state = SState.INVALID;
         }
         return f;
     }
@@ -427,7 +623,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public void setStateClosed(){
-        stateRef.set(SState.INVALID);
+        state = SState.INVALID;
     }
 
     /**
@@ -435,7 +631,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public void setStateReady(){
-        stateRef.set(SState.READY);
+        state = SState.READY;
     }
 
     /**
@@ -443,7 +639,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public boolean isReady(){
-        return stateRef.get().equals(SState.READY);
+        return state.equals(SState.READY);
     }
 
     /**
@@ -451,7 +647,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public boolean isConnecting(){
-        return stateRef.get().equals(SState.CONNECTING);
+        return state.equals(SState.CONNECTING);
     }
 
     /**
@@ -459,7 +655,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public boolean isClosing(){
-        return stateRef.get().equals(SState.CLOSING);
+        return state.equals(SState.CLOSING);
     }
 
     /**
@@ -467,28 +663,72 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public boolean isInvalid(){
-        return stateRef.get().equals(SState.INVALID);
+        return state.equals(SState.INVALID);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public boolean isNew() { return  stateRef.get().equals(SState.NEW); }
+    public boolean isNew() { return  state.equals(SState.NEW); }
 
     /**
      * {@inheritDoc}
      */
     @Override
     public void cancelConnect(IOFuture future){
-        if(stateRef.get().equals(SState.CONNECTING)) {
-            stateRef.set(SState.CLOSING);
+        if(state.equals(SState.CONNECTING)) {
+            state = SState.CLOSING;
             controller.cancelConnect(future);
         }
     }
 
-    private class DefaultAttributeMap implements IOSessionAttribute{
-        private final ConcurrentMap<Object, Object> attributes = new ConcurrentHashMap<Object, Object>(4);
+    /**
+     * The values of the {@link AttributeKey}s are kept at the index of their key in an array,
+     * grown on demand; the other keys go to a map created on demand.
+     * Reads don't lock, the updates of the array are serialized.
+     */
+    private static class DefaultAttributeMap implements IOSessionAttribute{
+        private volatile AtomicReferenceArray<Object> slots;
+        private volatile ConcurrentMap<Object, Object> attributes;
+
+        private Object get(int index) {
+            AtomicReferenceArray<Object> s = slots;
+            return (s == null || index >= s.length()) ? null : s.get(index);
+        }
+
+        /**
+         * @return the array, large enough for the index. Only called with the lock held.
+         */
+        private AtomicReferenceArray<Object> slots(int index) {
+            AtomicReferenceArray<Object> s = slots;
+            if (s == null || index >= s.length()) {
+                int length = Math.max(index + 1, AttributeKey.count());
+                AtomicReferenceArray<Object> grown = new AtomicReferenceArray<Object>(length);
+                if (s != null) {
+                    for (int i = 0; i < s.length(); i++) {
+                        grown.set(i, s.get(i));
+                    }
+                }
+                slots = grown;
+                s = grown;
+            }
+            return s;
+        }
+
+        private ConcurrentMap<Object, Object> attributes() {
+            ConcurrentMap<Object, Object> map = attributes;
+            if (map == null) {
+                synchronized (this) {
+                    map = attributes;
+                    if (map == null) {
+                        map = new ConcurrentHashMap<Object, Object>(4);
+                        attributes = map;
+                    }
+                }
+            }
+            return map;
+        }
 
         /**
          * {@inheritDoc}
@@ -496,7 +736,11 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
         @Override
         public Object get(Object key) {
             if (key == null) throw new IllegalArgumentException("key");
-            return attributes.get(key);
+            if (key instanceof AttributeKey) {
+                return get(((AttributeKey) key).getIndex());
+            }
+            ConcurrentMap<Object, Object> map = attributes;
+            return (map == null) ? null : map.get(key);
         }
 
         /**
@@ -507,10 +751,16 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
             if (key == null) throw new IllegalArgumentException("key");
 
             if (value == null) {
-                return attributes.remove(key);
+                return remove(key);
             }
 
-            return attributes.put(key, value);
+            if (key instanceof AttributeKey) {
+                int index = ((AttributeKey) key).getIndex();
+                synchronized (this) {
+                    return slots(index).getAndSet(index, value);
+                }
+            }
+            return attributes().put(key, value);
         }
 
         /**
@@ -523,7 +773,18 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
                 return null;
             }
 
-            return attributes.putIfAbsent(key, value);
+            if (key instanceof AttributeKey) {
+                int index = ((AttributeKey) key).getIndex();
+                synchronized (this) {
+                    AtomicReferenceArray<Object> s = slots(index);
+                    Object old = s.get(index);
+                    if (old == null) {
+                        s.set(index, value);
+                    }
+                    return old;
+                }
+            }
+            return attributes().putIfAbsent(key, value);
         }
 
         /**
@@ -532,7 +793,15 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
         @Override
         public Object remove(Object key) {
             if (key == null) throw new IllegalArgumentException("key");
-            return attributes.remove(key);
+            if (key instanceof AttributeKey) {
+                int index = ((AttributeKey) key).getIndex();
+                synchronized (this) {
+                    AtomicReferenceArray<Object> s = slots;
+                    return (s == null || index >= s.length()) ? null : s.getAndSet(index, null);
+                }
+            }
+            ConcurrentMap<Object, Object> map = attributes;
+            return (map == null) ? null : map.remove(key);
         }
 
         /**
@@ -540,8 +809,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
          */
         @Override
         public boolean contains(Object key) {
-            if (key == null) throw new IllegalArgumentException("key");
-            return attributes.containsKey(key);
+            return get(key) != null;
         }
 
         /**
@@ -549,10 +817,20 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
          */
         @Override
         public Set<Object> getKeys() {
-            synchronized (attributes) {
-                return new HashSet<Object>(attributes.keySet());
-
+            Set<Object> keys = new HashSet<Object>();
+            AtomicReferenceArray<Object> s = slots;
+            if (s != null) {
+                for (int i = 0; i < s.length(); i++) {
+                    if (s.get(i) != null) {
+                        keys.add(AttributeKey.keyAt(i));
+                    }
+                }
+            }
+            ConcurrentMap<Object, Object> map = attributes;
+            if (map != null) {
+                keys.addAll(map.keySet());
             }
+            return keys;
         }
     }
 
@@ -609,7 +887,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     public final ICloseFuture closeOnFlush() {
         if (!isClosing() && !isInvalid()) {
-            getWriteQueue().offer(CLOSE_REQUEST);
+            offerWritePacket(CLOSE_REQUEST);
             getProcessor().flush(this);
         }
 
@@ -626,13 +904,8 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
                 return getCloseFuture();
             }
 
-            stateRef.set(SState.CLOSING);
-
-            try {
-                destroyWriteQueue();
-            } catch (Exception e) {
-                getFilterChain().fireExceptionCaught(e);
-            }
+            state = SState.CLOSING;
+            // The processor, the only one polling the write queue, destroys it when removing the session
         }
 
         getFilterChain().fireFilterClose();
@@ -641,22 +914,21 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
     }
 
     /**
-     * Destroy the session queue
+     * Destroy the session queue, failing the pending writes.
+     * Called by the processor thread when it removes a session closed by {@link #closeNow()}.
      */
-    private void destroyWriteQueue(){
+    public final void destroyWriteQueue(){
         if (writePacketQueue != null) {
-            while (!writePacketQueue.isEmpty()) {
-                IWritePacket packet = writePacketQueue.poll();
-
-                if (packet != null) {
-                    IWriteFuture writeFuture = packet.getFuture();
-
-                    // The WriteRequest may not always have a future : The CLOSE_REQUEST
-                    // and MESSAGE_SENT_REQUEST don't.
-                    if (writeFuture != null) {
-                        Throwable cause = new WriteException("session closed!");
-                        writeFuture.setException(cause);
-                    }
+            List<IWritePacket> packets = new ArrayList<IWritePacket>();
+            drainWritePackets(packets);
+            for (IWritePacket packet : packets) {
+                IWriteFuture writeFuture = packet.getFuture();
+
+                // The WriteRequest may not always have a future : The CLOSE_REQUEST
+                // and MESSAGE_SENT_REQUEST don't.
+                if (writeFuture != null) {
+                    Throwable cause = new WriteException("session closed!");
+                    writeFuture.setException(cause);
                 }
             }
         }
@@ -667,9 +939,32 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     @Override
     public IWriteFuture write(Object message){
+        return write(message, WritePriority.NORMAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IWriteFuture write(Object message, WritePriority priority){
+        return write(message, priority, null);
+    }
+
+    /**
+     * Write a message to a given address, for the transports which can reach several peers
+     *
+     * @param message the message to write
+     * @param priority the priority class of the message
+     * @param destination the address to send the message to, <code>null</code> for the remote address
+     * @return the WriteFuture of the message
+     */
+    protected final IWriteFuture write(Object message, WritePriority priority, SocketAddress destination){
         if (message == null) {
             throw new IllegalArgumentException("Trying to write a null message : not allowed");
         }
+        if (priority == null) {
+            throw new IllegalArgumentException("priority");
+        }
 
         IWriteFuture future = getNewWriteFuture();
         if(!isReady()){
@@ -681,12 +976,247 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
             throw new IllegalArgumentException("message is empty. Forgot to call flip()?");
         }
 
-        WritePacket packet = new WritePacket(message, future);
+        WritePacket packet = new WritePacket(message, future, priority, destination);
         packet.setStartTime(SystemClock.elapsedRealtime());
         getFilterChain().fireFilterWrite(packet);
         return future;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeVoid(Object message){
+        writeVoid(message, WritePriority.NORMAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The start time of the packet is set by the processor when it begins to write it.
+     */
+    @Override
+    public void writeVoid(Object message, WritePriority priority){
+        if (message == null) {
+            throw new IllegalArgumentException("Trying to write a null message : not allowed");
+        }
+        if (priority == null) {
+            throw new IllegalArgumentException("priority");
+        }
+
+        if(!isReady()){
+            return;
+        }
+
+        if ((message instanceof IoBuffer) && !((IoBuffer) message).hasRemaining()) {
+            throw new IllegalArgumentException("message is empty. Forgot to call flip()?");
+        }
+
+        getFilterChain().fireFilterWrite(PooledWritePacket.obtain(message, priority));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IWriteFuture writeAll(Collection<?> messages){
+        if (messages == null) {
+            throw new IllegalArgumentException("messages");
+        }
+
+        IWriteFuture last = null;
+        WRITE_BATCHES.incrementAndGet(this);
+        try {
+            for (Object message : messages) {
+                last = write(message);
+            }
+        } finally {
+            // Even on failure, the packets queued meanwhile, by this batch or others, wait for it
+            if (WRITE_BATCHES.decrementAndGet(this) == 0 && isReady() && !isWriteQueueEmpty()) {
+                getProcessor().flush(this);
+            }
+        }
+
+        if (last == null) {
+            last = getNewWriteFuture();
+            last.setWritten();
+        }
+        return last;
+    }
+
+    /**
+     * @return <tt>true</tt> while a {@link #writeAll(Collection)} is in progress, which flushes at its end
+     */
+    public final boolean isWriteBatching() {
+        return writeBatches != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void suspendRead() {
+        suspendRead(ReadSuspension.USER);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void resumeRead() {
+        resumeRead(ReadSuspension.USER);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void suspendRead(int reasons) {
+        if (reasons == 0) {
+            throw new IllegalArgumentException("reasons");
+        }
+        for (;;) {
+            int current = readSuspension;
+            if ((current & reasons) == reasons) {
+                return;
+            }
+            if (READ_SUSPENSION.compareAndSet(this, current, current | reasons)) {
+                if (current == 0) {
+                    updateTrafficControl();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void resumeRead(int reasons) {
+        if (reasons == 0) {
+            throw new IllegalArgumentException("reasons");
+        }
+        for (;;) {
+            int current = readSuspension;
+            if ((current & reasons) == 0) {
+                return;
+            }
+            int update = current & ~reasons;
+            if (READ_SUSPENSION.compareAndSet(this, current, update)) {
+                if (update == 0) {
+                    updateTrafficControl();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void suspendWrite() {
+        if (!writeSuspended) {
+            writeSuspended = true;
+            updateTrafficControl();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void resumeWrite() {
+        if (writeSuspended) {
+            writeSuspended = false;
+            updateTrafficControl();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean isReadSuspended() {
+        return readSuspension != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean isWriteSuspended() {
+        return writeSuspended;
+    }
+
+    private void updateTrafficControl() {
+        if (!isClosing() && !isInvalid()) {
+            getProcessor().updateTrafficControl(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IWriteFuture writeAndAwait(Object message, long timeoutMillis) throws InterruptedException {
+        checkNotProcessorThread("writeAndAwait");
+        IWriteFuture future = write(message);
+        if (future.isDone()) {
+            return future;
+        }
+
+        final Thread waiter = Thread.currentThread();
+        future.setListener(new IoFutureListener<IOFuture>() {
+            @Override
+            public void onComplete(IOFuture future) {
+                LockSupport.unpark(waiter);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (!future.isDone()) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, nanos);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (!future.isDone()) {
+                future.removeListener();
+            }
+        }
+        return future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object read(long timeoutMillis) throws InterruptedException {
+        ReadQueue queue = readQueue;
+        if (queue == null) {
+            throw new IllegalStateException("read queue disabled, see IOConfig.setReadQueueCapacity()");
+        }
+        checkNotProcessorThread("read");
+        return queue.take(timeoutMillis);
+    }
+
+    /**
+     * Parking the processor thread would stall its event loop, and the write
+     * or the message waited for would never be handled.
+     */
+    private static void checkNotProcessorThread(String method) {
+        if (AbstractPollingIoProcessor.isProcessorThread()) {
+            throw new IllegalStateException(method + "() called from a processor thread");
+        }
+    }
+
     /**
      * Set the scheduledForFLush flag. As we may have concurrent access to this
      * flag, we compare and set it in one call.
@@ -701,10 +1231,10 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
             // If the current tag is set to false, switch it to true,
             // otherwise, we do nothing but return false : the session
             // is already scheduled for flush
-            return scheduledForFlush.compareAndSet(false, schedule);
+            return SCHEDULED_FOR_FLUSH.compareAndSet(this, 0, 1);
         }
 
-        scheduledForFlush.set(schedule);
+        scheduledForFlush = 0;
         return true;
     }
 
@@ -714,7 +1244,7 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      * @return true if the session is scheduled for flush
      */
     public final boolean isScheduledForFlush() {
-        return scheduledForFlush.get();
+        return scheduledForFlush != 0;
     }
 
     /**
@@ -773,6 +1303,14 @@ public abstract class AbstractIOSession<CH, CG extends AbstractIOConfig> impleme
      */
     protected abstract IWriteFuture getNewWriteFuture();
 
+    /**
+     * Copy a shared config snapshot, the first time {@link #getConfig()} is called
+     *
+     * @param shared the config of the controller
+     * @return the config of this session
+     */
+    protected abstract CG copySessionConfig(CG shared);
+
     /**
      * Build Session config and apply it to socket channel
      */
@@ -2,6 +2,10 @@ package com.sonf.core.session;
 
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * AttributeKey will be built from class name and specified key name.
@@ -19,9 +23,19 @@ import java.io.Serializable;
  *       //get and remove the stored data
  *       Object got = session.removeAttribute(key)
  *   </pre>
+ *
+ * Every key also gets a small index, the same for equal keys, so a session stores its value
+ * in an array slot rather than a hash map.
  */
 public final class AttributeKey implements Serializable {
+    /** The index of every key name */
+    private static final Map<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+    /** The keys, at their index */
+    private static final List<AttributeKey> keys = new ArrayList<AttributeKey>();
+
     private final String name;
+    /** Assigned in this process, see {@link #readResolve()} */
+    private final transient int index;
 
     /***
      * Build a new instance
@@ -31,6 +45,58 @@ public final class AttributeKey implements Serializable {
      */
     public AttributeKey(Class<?> clazz, String name){
         this.name = clazz.getName() + "." + name + "@" + Integer.toHexString(this.hashCode());
+        this.index = register(this);
+    }
+
+    private AttributeKey(String name){
+        this.name = name;
+        this.index = register(this);
+    }
+
+    private static int register(AttributeKey key) {
+        synchronized (keys) {
+            Integer index = indexes.get(key.name);
+            if (index == null) {
+                index = keys.size();
+                keys.add(key);
+                indexes.put(key.name, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the index of this key, shared by the equal keys
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of indexes given so far
+     */
+    static int count() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+
+    /**
+     * @param index an index given to a key
+     * @return the first key given this index
+     */
+    static AttributeKey keyAt(int index) {
+        synchronized (keys) {
+            return keys.get(index);
+        }
+    }
+
+    /**
+     * The index isn't serialized, it is given again in this process
+     */
+    private Object readResolve() {
+        Integer i = indexes.get(name);
+        return (i != null) ? keyAt(i) : new AttributeKey(name);
     }
 
     @Override
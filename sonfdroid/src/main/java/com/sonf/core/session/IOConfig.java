@@ -1,5 +1,6 @@
 package com.sonf.core.session;
 
+import com.sonf.core.write.WritePriority;
 
 public interface IOConfig {
 
@@ -64,4 +65,48 @@ public interface IOConfig {
      * @param writeTimeoutInMillis The timeout to set
      */
     void setWriteTimeoutInMillis(long writeTimeoutInMillis);
+
+    /**
+     * @return the number of received messages kept for {@link IOSession#read(long)},
+     *          0 (the default) if the messages are only delivered to the handler
+     */
+    int getReadQueueCapacity();
+
+    /**
+     * Sets the number of received messages kept for {@link IOSession#read(long)}.
+     * The messages are still delivered to the handler as well.
+     * When the queue is full, reading from the session is suspended until half of it is read.
+     *
+     * @param readQueueCapacity The capacity, 0 to disable the read operation
+     */
+    void setReadQueueCapacity(int readQueueCapacity);
+
+    /**
+     * @return the weight of each {@link WritePriority} lane of the write queue,
+     *          <code>null</code> (the default) for the strict priority
+     */
+    int[] getWriteWeights();
+
+    /**
+     * Sets how the lanes of the write queue take turns.
+     * With weights, each lane in turn writes up to its weight in messages, in {@link WritePriority} order.
+     * Without, the highest lane holding messages is written first.
+     *
+     * @param weights The weight of each lane, 1+, or <code>null</code> for the strict priority
+     */
+    void setWriteWeights(int... weights);
+
+    /**
+     * @return the number of messages which can overtake the waiting messages of a lower lane in a row,
+     *          with the strict priority. 0 for no limit
+     */
+    int getWriteStarvationLimit();
+
+    /**
+     * Sets the number of messages which can overtake the waiting messages of a lower lane in a row,
+     * with the strict priority. Then the lower lane writes one message.
+     *
+     * @param writeStarvationLimit The limit, 0 to let the lower lanes starve
+     */
+    void setWriteStarvationLimit(int writeStarvationLimit);
 }
@@ -2,6 +2,8 @@ package com.sonf.core.session;
 
 import com.sonf.core.IOController;
 import com.sonf.core.IOProcessor;
+import com.sonf.core.IoStatistics;
+import com.sonf.core.RuntimeIoException;
 import com.sonf.core.buffer.IoBuffer;
 import com.sonf.core.filter.IFilter;
 import com.sonf.core.filter.IFilterChain;
@@ -10,8 +12,10 @@ import com.sonf.core.future.ICloseFuture;
 import com.sonf.core.future.IOFuture;
 import com.sonf.core.future.IWriteFuture;
 import com.sonf.core.write.IWritePacket;
+import com.sonf.core.write.WritePriority;
 import com.sonf.future.ConnectFuture;
 
+import java.util.Collection;
 import java.util.Queue;
 import java.util.Set;
 
@@ -223,8 +227,122 @@ public interface IOSession<CH, CG extends IOConfig> {
      */
     IWriteFuture write(Object message);
 
+    /**
+     * Writes the specified <code>message</code> like {@link #write(Object)}, in the lane of the given priority class:
+     * it overtakes the messages of the lower classes waiting in the write queue,
+     * as scheduled by {@link IOConfig#setWriteWeights(int...)}.
+     *
+     * @param message The message to write
+     * @param priority The priority class of the message
+     * @return The associated WriteFuture
+     */
+    IWriteFuture write(Object message, WritePriority priority);
+
+    /**
+     * Writes the specified <code>message</code> like {@link #write(Object)}, when nobody waits for it:
+     * no future is created, and the write packet is recycled once the message is sent.
+     * A failure is only reported by {@link IOHandler#exceptionCaught(IOSession, Throwable)},
+     * and the message is dropped if the session is closed.
+     *
+     * @param message The message to write
+     */
+    void writeVoid(Object message);
+
+    /**
+     * Writes the specified <code>message</code> like {@link #writeVoid(Object)},
+     * in the lane of the given priority class.
+     *
+     * @param message The message to write
+     * @param priority The priority class of the message
+     */
+    void writeVoid(Object message, WritePriority priority);
+
+    /**
+     * Writes the specified <code>messages</code> in order, with {@link #write(Object)}.
+     * The session is scheduled for flush once for all of them.
+     *
+     * @param messages The messages to write
+     * @return The WriteFuture of the last message, written after the others
+     */
+    IWriteFuture writeAll(Collection<?> messages);
+
+    /**
+     * Stops reading from the channel, the peer is held back by the transport window.
+     * It takes effect on the next iteration of the processor loop, and can be called from any thread.
+     */
+    void suspendRead();
+
+    /**
+     * Resumes reading from the channel after {@link #suspendRead()}.
+     * Reading stays suspended while another reason holds it, see {@link #suspendRead(int)}.
+     */
+    void resumeRead();
+
+    /**
+     * Stops reading from the channel for the given reasons, added to those already set.
+     * {@link #suspendRead()} is the same with {@link ReadSuspension#USER}.
+     *
+     * @param reasons the {@link ReadSuspension} bits
+     */
+    void suspendRead(int reasons);
+
+    /**
+     * Clears the given reasons, reading resumes once none is left
+     *
+     * @param reasons the {@link ReadSuspension} bits
+     */
+    void resumeRead(int reasons);
+
+    /**
+     * Stops writing to the channel, the messages are kept in the write queue.
+     * It takes effect on the next iteration of the processor loop, and can be called from any thread.
+     */
+    void suspendWrite();
+
+    /**
+     * Resumes writing to the channel after {@link #suspendWrite()}, flushing the queued messages
+     */
+    void resumeWrite();
+
+    /**
+     * @return <tt>true</tt> if reading is suspended
+     */
+    boolean isReadSuspended();
+
+    /**
+     * @return <tt>true</tt> if writing is suspended
+     */
+    boolean isWriteSuspended();
+
+    /**
+     * Writes the specified <code>message</code> and waits until it is actually sent.
+     * The calling thread is parked rather than blocked on a monitor, so many sequential clients
+     * can each wait on a thread of their own. It can't be called from a processor thread.
+     *
+     * @param message The message to write, see {@link #write(Object)}
+     * @param timeoutMillis The maximum time to wait
+     * @return The associated WriteFuture, not yet done if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalStateException if called from a processor thread
+     */
+    IWriteFuture writeAndAwait(Object message, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Waits for the next received message, after it went through the filter chain.
+     * It requires a read queue, see {@link IOConfig#setReadQueueCapacity(int)}.
+     * It can't be called from a processor thread.
+     *
+     * @param timeoutMillis The maximum time to wait
+     * @return The message, or <code>null</code> if none came in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws RuntimeIoException if the session is closed, or to report an exception caught on the session
+     * @throws IllegalStateException if the read queue is disabled, or if called from a processor thread
+     */
+    Object read(long timeoutMillis) throws InterruptedException;
+
     /**
      * Get the queue that contains the message waiting for being written.
+     * Only the processor of the session polls it.
      *
      * @return The queue containing the pending messages.
      */
@@ -246,6 +364,11 @@ public interface IOSession<CH, CG extends IOConfig> {
      */
     void setCurrentWritePacket(IWritePacket writePacket);
 
+    /**
+     * @return the I/O counters of this session
+     */
+    IoStatistics getStatistics();
+
 
     /**
      * @return a value of whether or not this service is active
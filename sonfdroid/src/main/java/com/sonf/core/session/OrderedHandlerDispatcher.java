@@ -0,0 +1,241 @@
+package com.sonf.core.session;
+
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.buffer.SimpleIoBuffer;
+import com.yynie.myutils.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link IOHandler} which moves the callbacks of the wrapped handler off the processor thread.
+ * Each session owns a mailbox: its events are run one at a time and in order on the given
+ * {@link Executor}, while different sessions run concurrently. A handler may then block
+ * (database, file I/O, ...) without stalling the other sessions of its processor.
+ *
+ * A received {@link IoBuffer} is copied before being queued, since the processor reuses its read buffer.
+ * If the executor rejects a mailbox, its events are run on the calling thread rather than dropped.
+ * The mailbox is removed from the session once it is closed.
+ */
+public class OrderedHandlerDispatcher implements IOHandler {
+    private final static Logger log = Logger.get(OrderedHandlerDispatcher.class, Logger.Level.INFO);
+    private static final AttributeKey MAILBOX = new AttributeKey(OrderedHandlerDispatcher.class, "mailbox");
+    /** Events run by a mailbox before it gives its thread back to the executor */
+    private static final int MAX_EVENTS_PER_RUN = 64;
+
+    private final IOHandler handler;
+    private final Executor executor;
+
+    /**
+     * Constructor
+     *
+     * @param handler the handler to dispatch to
+     * @param executor the executor running the callbacks
+     */
+    public OrderedHandlerDispatcher(IOHandler handler, Executor executor) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the wrapped handler
+     */
+    public IOHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the executor running the callbacks
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionOpened(final IOSession session) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                handler.sessionOpened(session);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionClosed(final IOSession session) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.sessionClosed(session);
+                } finally {
+                    // Nothing is dispatched after it, a late event would get a new mailbox
+                    session.removeAttribute(MAILBOX);
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void exceptionCaught(final IOSession session, final Throwable throwable) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                handler.exceptionCaught(session, throwable);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageSent(final IOSession session, final Object message) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                handler.messageSent(session, message);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void inputClosed(final IOSession session) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                handler.inputClosed(session);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived(final IOSession session, Object message) {
+        final Object received = (message instanceof IoBuffer) ? SimpleIoBuffer.copyOf((IoBuffer) message) : message;
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.messageReceived(session, received);
+                } catch (Exception e) {
+                    session.getFilterChain().fireExceptionCaught(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionIdle(final IOSession session, final IdleStatus status) {
+        dispatch(session, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handler.sessionIdle(session, status);
+                } catch (Exception e) {
+                    session.getFilterChain().fireExceptionCaught(e);
+                }
+            }
+        });
+    }
+
+    private void dispatch(IOSession session, Runnable event) {
+        Mailbox mailbox = (Mailbox) session.getAttribute(MAILBOX);
+        if (mailbox == null) {
+            mailbox = new Mailbox(session);
+            Mailbox old = (Mailbox) session.setAttributeIfAbsent(MAILBOX, mailbox);
+            if (old != null) {
+                mailbox = old;
+            }
+        }
+        mailbox.events.offer(event);
+        mailbox.schedule();
+    }
+
+    /**
+     * The events of one session, drained by at most one thread at a time
+     */
+    private final class Mailbox implements Runnable {
+        private final IOSession session;
+        private final Queue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private Mailbox(IOSession session) {
+            this.session = session;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Late rather than lost, sessionClosed() included
+                    log.w("dispatch: rejected by the executor, {} events of session {} run on the caller thread",
+                            events.size(), session.getId());
+                    drain(Integer.MAX_VALUE);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            drain(MAX_EVENTS_PER_RUN);
+        }
+
+        /**
+         * Run the queued events, the mailbox must be scheduled
+         *
+         * @param maxEvents the number of events run before giving the thread back
+         */
+        private void drain(int maxEvents) {
+            try {
+                for (int i = 0; i < maxEvents; i++) {
+                    Runnable event = events.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    try {
+                        event.run();
+                    } catch (Throwable t) {
+                        log.e("drain: handler of session {} failed", session.getId(), t);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // An event may have been offered after the last poll but before the flag was reset
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
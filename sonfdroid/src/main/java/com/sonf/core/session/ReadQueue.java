@@ -0,0 +1,126 @@
+package com.sonf.core.session;
+
+import com.sonf.core.RuntimeIoException;
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.buffer.SimpleIoBuffer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queue of received messages behind {@link IOSession#read(long)}.
+ * The processor thread fills it from the end of the filter chain and never blocks on it;
+ * readers park on it until a message comes, see {@link IOConfig#setReadQueueCapacity(int)}.
+ * Nothing is refused: once the capacity is reached, reading from the session is suspended
+ * for {@link ReadSuspension#READ_QUEUE}, and resumed when the readers drained half of it.
+ * The messages already decoded from the last read still get in meanwhile.
+ */
+public final class ReadQueue {
+    private static final Object CLOSED = new Object();
+
+    private final IOSession session;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    /** The size at which reading is suspended */
+    private final int capacity;
+    /** The size at which reading is resumed */
+    private final int lowWaterMark;
+
+    /**
+     * Constructor
+     *
+     * @param session the session whose reading is suspended while the queue is full
+     * @param capacity the number of messages held before reading is suspended
+     */
+    public ReadQueue(IOSession session, int capacity) {
+        if (session == null) {
+            throw new IllegalArgumentException("session");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.session = session;
+        this.capacity = capacity;
+        this.lowWaterMark = capacity / 2;
+    }
+
+    /**
+     * Queue a received message. A raw {@link IoBuffer} is copied since the processor reuses it.
+     * Only called by the processor thread.
+     *
+     * @param message the received message
+     */
+    public void offerMessage(Object message) {
+        offer((message instanceof IoBuffer) ? SimpleIoBuffer.copyOf((IoBuffer) message) : message);
+    }
+
+    /**
+     * Queue an exception, thrown by the next {@link #take(long)}
+     *
+     * @param cause the exception caught on the session
+     */
+    public void offerException(Throwable cause) {
+        offer(new ExceptionHolder(cause));
+    }
+
+    private void offer(Object element) {
+        queue.offer(element);
+        if (queue.size() >= capacity) {
+            session.suspendRead(ReadSuspension.READ_QUEUE);
+            // The readers may have drained it before the suspension, and have nothing left to resume
+            if (queue.size() <= lowWaterMark) {
+                session.resumeRead(ReadSuspension.READ_QUEUE);
+            }
+        }
+    }
+
+    /**
+     * Mark the end of the messages, the readers get an exception once the queue is drained
+     */
+    public void close() {
+        queue.offer(CLOSED);
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Wait for the next message
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return the message, or <code>null</code> if none came in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws RuntimeIoException if the session is closed or an exception was caught on it
+     */
+    public Object take(long timeoutMillis) throws InterruptedException {
+        Object message = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (message == null) {
+            return null;
+        }
+        if (message == CLOSED) {
+            // Leave it for the next readers
+            queue.offer(CLOSED);
+            throw new RuntimeIoException("session closed");
+        }
+        if (queue.size() <= lowWaterMark) {
+            // Cheap unless this queue suspended the reading
+            session.resumeRead(ReadSuspension.READ_QUEUE);
+        }
+        if (message instanceof ExceptionHolder) {
+            throw new RuntimeIoException(((ExceptionHolder) message).cause);
+        }
+        return message;
+    }
+
+    private static final class ExceptionHolder {
+        private final Throwable cause;
+
+        private ExceptionHolder(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
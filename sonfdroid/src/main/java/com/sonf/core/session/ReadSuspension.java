@@ -0,0 +1,21 @@
+package com.sonf.core.session;
+
+/**
+ * The reasons for which reading from a session is suspended, one bit each.
+ * Reading resumes once every reason is cleared, so each party only resumes what it suspended.
+ *
+ * @see IOSession#suspendRead(int)
+ */
+public final class ReadSuspension {
+    /** {@link IOSession#suspendRead()} */
+    public static final int USER = 1;
+    /** A rate limit, see {@link com.sonf.filter.TrafficShapingFilter} */
+    public static final int TRAFFIC_SHAPING = 1 << 1;
+    /** No demand from a subscriber, see {@link com.sonf.reactive.SessionPublisher} */
+    public static final int BACKPRESSURE = 1 << 2;
+    /** The read queue is full, see {@link IOConfig#setReadQueueCapacity(int)} */
+    public static final int READ_QUEUE = 1 << 3;
+
+    private ReadSuspension() {
+    }
+}
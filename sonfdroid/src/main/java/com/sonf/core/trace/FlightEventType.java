@@ -0,0 +1,45 @@
+package com.sonf.core.trace;
+
+import com.sonf.core.filter.IFilterChain;
+
+/**
+ * The events recorded by the {@link FlightRecorder}, one per <tt>fire*</tt> method of {@link IFilterChain}.
+ * The code is what is stored in the ring and in the dumps, so it must never change.
+ */
+public enum FlightEventType {
+    SESSION_OPENED(1),
+    SESSION_CLOSED(2),
+    EXCEPTION_CAUGHT(3),
+    MESSAGE_SENT(4),
+    INPUT_CLOSED(5),
+    MESSAGE_RECEIVED(6),
+    FILTER_CLOSE(7),
+    FILTER_WRITE(8),
+    SESSION_IDLE(9);
+
+    private final int code;
+
+    FlightEventType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code stored in the ring
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param code a stored code
+     * @return the type of the code, or <tt>null</tt> if unknown
+     */
+    public static FlightEventType fromCode(int code) {
+        for (FlightEventType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
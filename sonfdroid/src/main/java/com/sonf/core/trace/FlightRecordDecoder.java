@@ -0,0 +1,93 @@
+package com.sonf.core.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Print a dump written by {@link FlightRecorder}, one event per line:
+ * <pre>
+ * 10-18 21:39:36.287123 session=12 MESSAGE_RECEIVED bytes=512
+ * </pre>
+ * Usage: <tt>java com.sonf.core.trace.FlightRecordDecoder dump.bin [sessionId]</tt>
+ */
+public class FlightRecordDecoder {
+    private FlightRecordDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FlightRecordDecoder <dump file> [session id]");
+            System.exit(1);
+        }
+        long sessionId = args.length > 1 ? Long.parseLong(args[1]) : -1;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            decode(in, System.out, sessionId);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Print the events of a dump
+     *
+     * @param is the dump
+     * @param out where to print
+     * @param sessionId print only the events of this session, -1 for all
+     * @throws IOException if the dump can't be read or is not a flight record
+     */
+    public static void decode(InputStream is, PrintStream out, long sessionId) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 8192));
+        if (in.readLong() != FlightRecorder.MAGIC) {
+            throw new IOException("Not a flight record");
+        }
+        long dumpNanoTime = in.readLong();
+        long dumpWallTime = in.readLong();
+        long recorded = in.readLong();
+        int count = in.readInt();
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+
+        out.println("# " + count + " events of " + recorded + " recorded, dumped at "
+                + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(dumpWallTime)));
+        try {
+            for (int i = 0; i < count; i++) {
+                long nanoTime = in.readLong();
+                long id = in.readLong();
+                int code = in.readInt();
+                int bytes = in.readInt();
+                if (sessionId != -1 && id != sessionId) {
+                    continue;
+                }
+
+                // Convert the monotonic time with the reference pair of the dump
+                long wallMicros = dumpWallTime * 1000L - (dumpNanoTime - nanoTime) / 1000L;
+                long micros = wallMicros % 1000L;
+                date.setTime(wallMicros / 1000L);
+                FlightEventType type = FlightEventType.fromCode(code);
+
+                StringBuilder sb = new StringBuilder(64);
+                sb.append(format.format(date));
+                if (micros < 100) sb.append('0');
+                if (micros < 10) sb.append('0');
+                sb.append(micros)
+                        .append(" session=").append(id)
+                        .append(' ').append(type != null ? type.name() : "UNKNOWN(" + code + ")");
+                if (bytes != -1) {
+                    sb.append(" bytes=").append(bytes);
+                }
+                out.println(sb);
+            }
+        } catch (EOFException e) {
+            out.println("# truncated dump");
+        }
+    }
+}
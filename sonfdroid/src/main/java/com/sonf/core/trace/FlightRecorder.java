@@ -0,0 +1,342 @@
+package com.sonf.core.trace;
+
+import com.sonf.core.NamedRunnable;
+import com.yynie.myutils.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on, fixed-size ring of binary I/O events, kept for post-mortem analysis.<br>
+ * The ring is split into stripes, each thread records into its own one so the processors don't
+ * contend on a shared sequence. Recording an event is one atomic increment of the stripe sequence
+ * and three array stores: the timestamp ({@link System#nanoTime()}), the session id, and the event
+ * type with a byte count. When a stripe is full its oldest events are overwritten, so a thread keeps
+ * the last {@link #getStripeCapacity()} events of its stripe, not the whole {@link #getCapacity()}.
+ * The stripes are sorted by timestamp when dumped. Events recorded concurrently with a dump may be
+ * torn, which is acceptable for tracing.
+ * <p>
+ * The ring can be dumped with {@link #dump(File)}, or automatically when an exception reaches the
+ * tail of a filter chain if {@link #setAutoDumpDir(File)} is set. {@link FlightRecordDecoder} prints the dumps.
+ */
+public class FlightRecorder {
+    private static final Logger log = Logger.get(FlightRecorder.class, Logger.Level.INFO);
+
+    /** The dump file magic */
+    static final long MAGIC = 0x534f4e4646523031L; // "SONFFR01"
+    private static final int LONGS_PER_EVENT = 3;
+    /** The default number of events, 192KB of memory */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /** The stripes of a recorder, about one per core */
+    private static final int STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+    /** Spreads the threads over the stripes, in the order they first record */
+    private static final AtomicInteger nextStripe = new AtomicInteger();
+    private static final ThreadLocal<Integer> stripeIndex = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return nextStripe.getAndIncrement();
+        }
+    };
+
+    private static volatile FlightRecorder defaultRecorder = new FlightRecorder(DEFAULT_CAPACITY);
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+    private final int stripeCapacity;
+
+    private volatile File autoDumpDir;
+    private volatile long autoDumpIntervalMs = 10000L;
+    private final AtomicLong lastAutoDumpTime = new AtomicLong(Long.MIN_VALUE / 2);
+
+    /**
+     * @param capacity the number of events kept by all the stripes, rounded up to a power of two
+     */
+    public FlightRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: 1+)");
+        }
+        int size = ceilingPowerOfTwo(capacity);
+        int n = Math.min(STRIPES, size);
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe(size / n);
+        }
+        stripeMask = n - 1;
+        this.capacity = size;
+        this.stripeCapacity = size / n;
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        int size = Integer.highestOneBit(value);
+        return (size < value) ? size << 1 : size;
+    }
+
+    /**
+     * @return the recorder used by the filter chains
+     */
+    public static FlightRecorder getDefault() {
+        return defaultRecorder;
+    }
+
+    /**
+     * Replace the recorder used by the filter chains
+     *
+     * @param recorder the new recorder
+     */
+    public static void setDefault(FlightRecorder recorder) {
+        if (recorder == null) {
+            throw new IllegalArgumentException("recorder");
+        }
+        defaultRecorder = recorder;
+    }
+
+    /**
+     * @return the number of events kept by all the stripes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of events kept by a stripe, the history of the threads recording into it
+     */
+    public int getStripeCapacity() {
+        return stripeCapacity;
+    }
+
+    /**
+     * @return the number of events recorded since the creation
+     */
+    public long getRecordedCount() {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.sequence.get();
+        }
+        return count;
+    }
+
+    /**
+     * Record an event
+     *
+     * @param type the event type
+     * @param sessionId the session id
+     * @param bytes the number of bytes of the message, or an event specific value, -1 if none
+     */
+    public final void record(FlightEventType type, long sessionId, int bytes) {
+        Stripe stripe = stripes[stripeIndex.get() & stripeMask];
+        long[] ring = stripe.ring;
+        long seq = stripe.sequence.getAndIncrement();
+        int base = ((int) seq & stripe.mask) * LONGS_PER_EVENT;
+        ring[base] = System.nanoTime();
+        ring[base + 1] = sessionId;
+        ring[base + 2] = ((long) type.getCode() << 32) | (bytes & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Set the directory the ring is dumped to when an exception reaches the tail of a filter chain.
+     *
+     * @param dir the directory, <tt>null</tt> to disable the automatic dumps
+     */
+    public void setAutoDumpDir(File dir) {
+        this.autoDumpDir = dir;
+    }
+
+    /**
+     * @param intervalMs the minimum time between two automatic dumps
+     */
+    public void setAutoDumpIntervalMs(long intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("intervalMs: " + intervalMs + " (expected: 0+)");
+        }
+        this.autoDumpIntervalMs = intervalMs;
+    }
+
+    /**
+     * Called when an exception reached the tail of a filter chain.
+     * Take a copy of the ring and write it from another thread, if the automatic dump is enabled
+     * and the last one is old enough.
+     *
+     * @param sessionId the session which caught the exception
+     */
+    public void exceptionCaught(long sessionId) {
+        final File dir = autoDumpDir;
+        if (dir == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastAutoDumpTime.get();
+        if (now - last < autoDumpIntervalMs || !lastAutoDumpTime.compareAndSet(last, now)) {
+            return;
+        }
+
+        final Snapshot snapshot = snapshot();
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(now));
+        final File file = new File(dir, "flight-" + time + "-s" + sessionId + ".bin");
+        Runnable writer = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("Can't create " + dir);
+                    }
+                    snapshot.writeTo(file);
+                    log.w("Flight record dumped to {}", file);
+                } catch (IOException e) {
+                    log.e("Flight record dump failed: {}", e);
+                }
+            }
+        };
+        Thread thread = new Thread(new NamedRunnable(writer, "FlightRecorderDump"));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Write the recorded events into a file
+     *
+     * @param file the dump file
+     * @throws IOException if the file can't be written
+     */
+    public void dump(File file) throws IOException {
+        snapshot().writeTo(file);
+    }
+
+    /**
+     * Write the recorded events into a stream, which is not closed
+     *
+     * @param out the output stream
+     * @throws IOException if the stream can't be written
+     */
+    public void dump(OutputStream out) throws IOException {
+        snapshot().writeTo(out);
+    }
+
+    private Snapshot snapshot() {
+        long recorded = 0;
+        int total = 0;
+        long[][] copies = new long[stripes.length][];
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            long end = stripe.sequence.get();
+            int count = (int) Math.min(end, stripe.mask + 1);
+            long[] events = new long[count * LONGS_PER_EVENT];
+            long seq = end - count;
+            for (int j = 0; j < count; j++, seq++) {
+                System.arraycopy(stripe.ring, ((int) seq & stripe.mask) * LONGS_PER_EVENT,
+                        events, j * LONGS_PER_EVENT, LONGS_PER_EVENT);
+            }
+            copies[i] = events;
+            recorded += end;
+            total += count;
+        }
+        return new Snapshot(merge(copies, total), total, recorded, System.nanoTime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Merge the copies of the stripes by timestamp. A stripe shared by several threads isn't in
+     * timestamp order, so all the events are sorted. The sort is stable: equal timestamps keep the
+     * order of the stripes, then of their sequence.
+     */
+    private static long[] merge(long[][] copies, int total) {
+        final long[] all = new long[total * LONGS_PER_EVENT];
+        int pos = 0;
+        for (long[] copy : copies) {
+            System.arraycopy(copy, 0, all, pos, copy.length);
+            pos += copy.length;
+        }
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                // nanoTime() may wrap, only the difference is meaningful
+                long diff = all[a * LONGS_PER_EVENT] - all[b * LONGS_PER_EVENT];
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        long[] events = new long[all.length];
+        for (int i = 0; i < total; i++) {
+            System.arraycopy(all, order[i] * LONGS_PER_EVENT, events, i * LONGS_PER_EVENT, LONGS_PER_EVENT);
+        }
+        return events;
+    }
+
+    /**
+     * The part of the ring a group of threads records into
+     */
+    private static final class Stripe {
+        private final long[] ring;
+        private final int mask;
+        private final AtomicLong sequence = new AtomicLong();
+
+        private Stripe(int size) {
+            mask = size - 1;
+            ring = new long[size * LONGS_PER_EVENT];
+        }
+    }
+
+    /**
+     * A copy of the ring, oldest event first.
+     */
+    private static final class Snapshot {
+        private final long[] events;
+        private final int count;
+        private final long recorded;
+        private final long nanoTime;
+        private final long wallTime;
+
+        private Snapshot(long[] events, int count, long recorded, long nanoTime, long wallTime) {
+            this.events = events;
+            this.count = count;
+            this.recorded = recorded;
+            this.nanoTime = nanoTime;
+            this.wallTime = wallTime;
+        }
+
+        private void writeTo(File file) throws IOException {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Format: magic, the (nanoTime, currentTimeMillis) pair of the dump to convert the
+         * timestamps, the total number of recorded events, the number of events in the dump,
+         * then each event as (long nanoTime, long sessionId, int type, int bytes). Big endian.
+         */
+        private void writeTo(OutputStream os) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 8192));
+            out.writeLong(MAGIC);
+            out.writeLong(nanoTime);
+            out.writeLong(wallTime);
+            out.writeLong(recorded);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                int base = i * LONGS_PER_EVENT;
+                out.writeLong(events[base]);
+                out.writeLong(events[base + 1]);
+                out.writeInt((int) (events[base + 2] >>> 32));
+                out.writeInt((int) events[base + 2]);
+            }
+            out.flush();
+        }
+    }
+}
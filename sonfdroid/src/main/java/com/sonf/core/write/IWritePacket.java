@@ -5,6 +5,8 @@ import android.os.SystemClock;
 import com.sonf.core.filter.IFilter;
 import com.sonf.core.future.IWriteFuture;
 
+import java.net.SocketAddress;
+
 public interface IWritePacket {
 
     /**
@@ -40,4 +42,20 @@ public interface IWritePacket {
      * @param elapsedRealTime milliseconds {@link SystemClock#elapsedRealtime()}
      */
     void setStartTime(long elapsedRealTime);
+
+    /**
+     * @return the priority class of the packet, which chooses its lane in the write queue
+     */
+    WritePriority getPriority();
+
+    /**
+     * Set the priority class of the packet, it has no effect once the packet is queued
+     * @param priority the priority class
+     */
+    void setPriority(WritePriority priority);
+
+    /**
+     * @return the address the message is sent to, or <code>null</code> for the remote address of the session
+     */
+    SocketAddress getDestination();
 }
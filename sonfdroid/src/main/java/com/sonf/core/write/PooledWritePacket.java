@@ -0,0 +1,69 @@
+package com.sonf.core.write;
+
+import com.sonf.core.future.VoidWriteFuture;
+
+/**
+ * A {@link WritePacket} of a write nobody waits for, with the {@link VoidWriteFuture}.
+ * It goes back to a pool of the current thread once sent, usually the processor thread,
+ * so a handler replying from its callbacks doesn't allocate packets.
+ * A filter must not keep such a packet after <tt>messageSent</tt>.
+ */
+public final class PooledWritePacket extends WritePacket {
+    /** The packets kept by a thread */
+    private static final int MAX_POOLED = 64;
+
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    /** Set while in a pool, so a packet isn't recycled twice */
+    private boolean recycled;
+
+    private PooledWritePacket() {
+        super(null, VoidWriteFuture.INSTANCE);
+    }
+
+    /**
+     * Take a packet from the pool of the current thread, or create one
+     *
+     * @param message the message to write
+     * @param priority the priority class of the packet
+     * @return the packet
+     */
+    public static PooledWritePacket obtain(Object message, WritePriority priority) {
+        Pool pool = pools.get();
+        PooledWritePacket packet;
+        if (pool.size > 0) {
+            packet = pool.packets[--pool.size];
+            pool.packets[pool.size] = null;
+        } else {
+            packet = new PooledWritePacket();
+        }
+        packet.recycled = false;
+        packet.reset(message, VoidWriteFuture.INSTANCE, priority);
+        return packet;
+    }
+
+    /**
+     * Give the packet back to the pool of the current thread, dropped if the pool is full
+     */
+    public void recycle() {
+        if (recycled) {
+            return;
+        }
+        recycled = true;
+        reset(null, VoidWriteFuture.INSTANCE, WritePriority.NORMAL);
+        Pool pool = pools.get();
+        if (pool.size < MAX_POOLED) {
+            pool.packets[pool.size++] = this;
+        }
+    }
+
+    private static final class Pool {
+        private final PooledWritePacket[] packets = new PooledWritePacket[MAX_POOLED];
+        private int size;
+    }
+}
@@ -0,0 +1,241 @@
+package com.sonf.core.write;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The write queue of a session, with a {@link WritePacketQueue} lane per {@link WritePriority},
+ * each created by its first packet. The packets of a lane are polled in order.
+ *
+ * Which lane is polled depends on the scheduling given to {@link #poll(int[], int)}:
+ * <ul>
+ *   <li>strict: the highest lane holding packets, unless a lower lane has been overtaken
+ *   too many times in a row, then the lower lanes take turns for one packet</li>
+ *   <li>weighted: the lanes take turns for a number of packets, their weight</li>
+ * </ul>
+ *
+ * Like {@link WritePacketQueue}, many threads offer and only the processor of the session polls.
+ */
+public final class WriteLanes extends AbstractQueue<IWritePacket> {
+    private static final WritePriority[] PRIORITIES = WritePriority.values();
+
+    private final AtomicReferenceArray<WritePacketQueue> lanes =
+            new AtomicReferenceArray<WritePacketQueue>(PRIORITIES.length);
+
+    // The scheduling state, only used by the consumer
+    /** Strict: the packets polled in a row while a lower lane was waiting */
+    private int overtakes;
+    /** Strict: the last lower lane polled because of the overtakes */
+    private int rescued;
+    /** Weighted: the lane in turn, -1 before the first poll */
+    private int turn = -1;
+    /** Weighted: the packets the lane in turn can still write */
+    private int credit;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean offer(IWritePacket packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        return lane(laneOf(packet)).offer(packet);
+    }
+
+    private static int laneOf(IWritePacket packet) {
+        WritePriority priority = packet.getPriority();
+        return (priority == null) ? WritePriority.NORMAL.ordinal() : priority.ordinal();
+    }
+
+    private WritePacketQueue lane(int i) {
+        WritePacketQueue lane = lanes.get(i);
+        if (lane == null) {
+            lanes.compareAndSet(i, null, new WritePacketQueue());
+            lane = lanes.get(i);
+        }
+        return lane;
+    }
+
+    private boolean hasPackets(int i) {
+        WritePacketQueue lane = lanes.get(i);
+        return lane != null && !lane.isEmpty();
+    }
+
+    /**
+     * The first lane from the given one holding packets
+     */
+    private int nextNonEmpty(int from) {
+        for (int i = from; i < PRIORITIES.length; i++) {
+            if (hasPackets(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * It polls with the strict scheduling, without starvation limit.
+     */
+    @Override
+    public IWritePacket poll() {
+        return poll(null, 0);
+    }
+
+    /**
+     * Poll the packet of the lane to be written next
+     *
+     * @param weights the weight of each lane, by {@link WritePriority} order,
+     *                or <code>null</code> for the strict scheduling
+     * @param starvationLimit with the strict scheduling, the packets which can overtake a lower lane in a row,
+     *                        0 for no limit
+     * @return the packet, or <code>null</code> if there is none
+     */
+    public IWritePacket poll(int[] weights, int starvationLimit) {
+        return (weights == null) ? pollStrict(starvationLimit) : pollWeighted(weights);
+    }
+
+    private IWritePacket pollStrict(int starvationLimit) {
+        int first = nextNonEmpty(0);
+        if (first < 0) {
+            overtakes = 0;
+            return null;
+        }
+
+        int lane = first;
+        if (nextNonEmpty(first + 1) < 0) {
+            overtakes = 0;
+        } else if (starvationLimit > 0 && overtakes >= starvationLimit) {
+            overtakes = 0;
+            lane = rescue(first);
+        } else {
+            overtakes++;
+        }
+        return lanes.get(lane).poll();
+    }
+
+    /**
+     * The lower lanes waiting take turns
+     */
+    private int rescue(int first) {
+        int count = PRIORITIES.length - first - 1;
+        int last = (rescued > first) ? rescued - first - 1 : count - 1;
+        for (int k = 1; k <= count; k++) {
+            int i = first + 1 + (last + k) % count;
+            if (hasPackets(i)) {
+                rescued = i;
+                return i;
+            }
+        }
+        return first;
+    }
+
+    private IWritePacket pollWeighted(int[] weights) {
+        // Each lane once, and the one in turn twice if it is empty now
+        for (int k = 0; k <= PRIORITIES.length; k++) {
+            if (turn >= 0 && credit > 0 && hasPackets(turn)) {
+                credit--;
+                return lanes.get(turn).poll();
+            }
+            turn = (turn + 1) % PRIORITIES.length;
+            credit = (turn < weights.length) ? weights[turn] : 1;
+        }
+        return null;
+    }
+
+    /**
+     * Poll all the packets at once, lane by lane from the highest
+     *
+     * @param c the collection to add them to
+     * @return the number of packets added
+     */
+    public int drainTo(Collection<? super IWritePacket> c) {
+        int n = 0;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            WritePacketQueue lane = lanes.get(i);
+            if (lane != null) {
+                n += lane.drainTo(c);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * It is the head of the highest lane holding packets.
+     */
+    @Override
+    public IWritePacket peek() {
+        int first = nextNonEmpty(0);
+        return (first < 0) ? null : lanes.get(first).peek();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return nextNonEmpty(0) < 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * It walks the lanes.
+     */
+    @Override
+    public int size() {
+        int n = 0;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            WritePacketQueue lane = lanes.get(i);
+            if (lane != null) {
+                n += lane.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The iterator walks the lanes from the highest, it is weakly consistent and read only.
+     */
+    @Override
+    public Iterator<IWritePacket> iterator() {
+        return new Iterator<IWritePacket>() {
+            private int lane = -1;
+            private Iterator<IWritePacket> current;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || !current.hasNext()) {
+                    if (++lane >= PRIORITIES.length) {
+                        return false;
+                    }
+                    WritePacketQueue queue = lanes.get(lane);
+                    current = (queue == null) ? null : queue.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public IWritePacket next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -2,14 +2,29 @@ package com.sonf.core.write;
 
 import com.sonf.core.future.IWriteFuture;
 
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * implementatin of {@link IWritePacket}, represent for a data packet sent to remote endpoint
  */
 public class WritePacket implements IWritePacket {
-    private final Object origMessage;
+    static final AtomicReferenceFieldUpdater<WritePacket, WritePacket> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(WritePacket.class, WritePacket.class, "next");
+    static final AtomicIntegerFieldUpdater<WritePacket> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(WritePacket.class, "queued");
+
+    private Object origMessage;
     private Object message;
-    private final IWriteFuture future;
+    private IWriteFuture future;
     private long startTime;
+    private WritePriority priority = WritePriority.NORMAL;
+    private SocketAddress destination;
+    /** The next packet in the {@link WritePacketQueue} holding this one */
+    volatile WritePacket next;
+    /** 1 while this packet is linked in a {@link WritePacketQueue} */
+    volatile int queued;
 
     /**
      * Creates a new instance with {@link IWriteFuture}.
@@ -18,9 +33,46 @@ public class WritePacket implements IWritePacket {
      * @param future The associated {@link IWriteFuture}
      */
     public WritePacket(Object message, IWriteFuture future) {
+        this(message, future, WritePriority.NORMAL);
+    }
+
+    /**
+     * Creates a new instance with {@link IWriteFuture} and a priority class.
+     *
+     * @param message The original message that will be written
+     * @param future The associated {@link IWriteFuture}
+     * @param priority The priority class of the packet
+     */
+    public WritePacket(Object message, IWriteFuture future, WritePriority priority) {
+        this(message, future, priority, null);
+    }
+
+    /**
+     * Creates a new instance sent to a given address.
+     *
+     * @param message The original message that will be written
+     * @param future The associated {@link IWriteFuture}
+     * @param priority The priority class of the packet
+     * @param destination The address to send the message to, <code>null</code> for the remote address
+     */
+    public WritePacket(Object message, IWriteFuture future, WritePriority priority, SocketAddress destination) {
         this.origMessage = message;
         this.message = message;
         this.future = future;
+        this.destination = destination;
+        setPriority(priority);
+    }
+
+    /**
+     * Make the packet new again, for a {@link PooledWritePacket}
+     */
+    void reset(Object message, IWriteFuture future, WritePriority priority) {
+        this.origMessage = message;
+        this.message = message;
+        this.future = future;
+        this.startTime = 0L;
+        this.priority = priority;
+        this.destination = null;
     }
 
     /**
@@ -67,4 +119,31 @@ public class WritePacket implements IWritePacket {
     public Object getOrigMessage() {
         return origMessage;
     }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public WritePriority getPriority() {
+        return priority;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public void setPriority(WritePriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority");
+        }
+        this.priority = priority;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public SocketAddress getDestination() {
+        return destination;
+    }
 }
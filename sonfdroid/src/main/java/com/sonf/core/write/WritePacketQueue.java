@@ -0,0 +1,204 @@
+package com.sonf.core.write;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The write queue of a session: many threads write, the processor of the session polls.
+ *
+ * A {@link WritePacket} is linked through its own <tt>next</tt> field, so offering it
+ * allocates nothing, and a writer only swaps the tail: it never retries nor waits.
+ * Any other {@link IWritePacket}, or a packet already linked in a queue, is carried by a node.
+ *
+ * There must be a single consumer: poll, peek, drain, size and iteration are only called by
+ * the processor thread of the session. The consumer doesn't wait either: poll and peek return
+ * <code>null</code> while the next packet is being offered, and the session is flushed again.
+ * {@link #isEmpty()} can be called from any thread, it doesn't tell the queue is empty
+ * while a packet is being offered.
+ */
+public final class WritePacketQueue extends AbstractQueue<IWritePacket> {
+    private static final AtomicReferenceFieldUpdater<WritePacketQueue, WritePacket> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(WritePacketQueue.class, WritePacket.class, "tail");
+
+    /** Linked whenever the queue would be empty, so the last packet can be unlinked */
+    private final WritePacket stub = new Node(null);
+    /** The oldest packet, or the stub. Only changed by the consumer */
+    private volatile WritePacket head = stub;
+    /** The newest packet, or the stub */
+    private volatile WritePacket tail = stub;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean offer(IWritePacket packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        WritePacket node;
+        if (packet instanceof WritePacket && !(packet instanceof Node)
+                && WritePacket.QUEUED.compareAndSet((WritePacket) packet, 0, 1)) {
+            node = (WritePacket) packet;
+        } else {
+            node = new Node(packet);
+        }
+        link(node);
+        return true;
+    }
+
+    private void link(WritePacket node) {
+        WritePacket.NEXT.lazySet(node, null);
+        WritePacket prev = TAIL.getAndSet(this, node);
+        WritePacket.NEXT.lazySet(prev, node);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IWritePacket poll() {
+        WritePacket h = head;
+        WritePacket next = h.next;
+        if (h == stub) {
+            if (next == null) {
+                // Empty, or the first packet is being linked
+                return null;
+            }
+            head = next;
+            h = next;
+            next = h.next;
+        }
+        if (next != null) {
+            head = next;
+            return unlink(h);
+        }
+        if (h != tail) {
+            // A writer swapped the tail but hasn't linked its packet after this one yet
+            return null;
+        }
+        // The last packet, the stub takes its place
+        link(stub);
+        next = h.next;
+        if (next != null) {
+            head = next;
+            return unlink(h);
+        }
+        // Another writer came in between, its packet is linked before the stub
+        return null;
+    }
+
+    private static IWritePacket unlink(WritePacket node) {
+        WritePacket.NEXT.lazySet(node, null);
+        if (node instanceof Node) {
+            return ((Node) node).packet;
+        }
+        node.queued = 0;
+        return node;
+    }
+
+    /**
+     * Poll all the packets at once
+     *
+     * @param c the collection to add them to
+     * @return the number of packets added
+     */
+    public int drainTo(Collection<? super IWritePacket> c) {
+        int n = 0;
+        IWritePacket packet;
+        while ((packet = poll()) != null) {
+            c.add(packet);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IWritePacket peek() {
+        WritePacket h = head;
+        if (h == stub) {
+            h = stub.next;
+            if (h == null) {
+                return null;
+            }
+        }
+        return (h instanceof Node) ? ((Node) h).packet : h;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return head == stub && stub.next == null && tail == stub;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * It walks the queue.
+     */
+    @Override
+    public int size() {
+        int n = 0;
+        for (WritePacket node = head; node != null; node = node.next) {
+            if (node != stub) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The iterator is weakly consistent and read only, it is meant for the consumer.
+     */
+    @Override
+    public Iterator<IWritePacket> iterator() {
+        return new Iterator<IWritePacket>() {
+            private WritePacket node = skipStub(head);
+
+            @Override
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            @Override
+            public IWritePacket next() {
+                WritePacket current = node;
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                node = skipStub(current.next);
+                return (current instanceof Node) ? ((Node) current).packet : current;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private WritePacket skipStub(WritePacket node) {
+        return (node == stub) ? stub.next : node;
+    }
+
+    /**
+     * Carries a packet which can't be linked itself
+     */
+    private static final class Node extends WritePacket {
+        private final IWritePacket packet;
+
+        private Node(IWritePacket packet) {
+            super(null, null);
+            this.packet = packet;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.sonf.core.write;
+
+/**
+ * The priority class of a {@link IWritePacket}, each class has its own lane in the write queue
+ * of a session, so a packet overtakes the packets of the lower classes queued before it.
+ * A message being written is never interrupted: big payloads should be written in chunks
+ * for the higher classes to get through in between.
+ */
+public enum WritePriority {
+    /** Latency sensitive messages: heartbeats, acks, cancels */
+    HIGH,
+    /** The default class */
+    NORMAL,
+    /** Bulk data */
+    LOW
+}
@@ -0,0 +1,533 @@
+package com.sonf.filter;
+
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.buffer.SimpleIoBuffer;
+import com.sonf.core.filter.IFilterAdapter;
+import com.sonf.core.filter.IFilterChain;
+import com.sonf.core.session.AttributeKey;
+import com.sonf.core.session.IOSession;
+import com.sonf.core.write.IWritePacket;
+import com.sonf.core.write.WritePriority;
+import com.yynie.myutils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A filter which compresses the {@link IoBuffer}s written and decompresses the ones received,
+ * streaming them through a {@link Deflater} and an {@link Inflater} kept by each session:
+ * the later messages are compressed against the earlier ones.
+ *
+ * Each message is sent as a frame, a varint header holding its length and whether it is compressed,
+ * then the bytes. A compressed message is flushed with {@link Deflater#SYNC_FLUSH}, so the remote
+ * endpoint gets it whole, and the messages smaller than the minimum size are sent as they are.
+ * Both endpoints must use this filter, with the same preset dictionary if any.
+ * Only the {@link WritePriority#NORMAL} messages are compressed: the messages of the other classes
+ * overtake them or are overtaken in the write queue, so they are sent as they are.
+ *
+ * Add it before the {@link ProtocolFilter}, so it handles the encoded bytes.
+ * It is meant for stream sessions: a datagram lost or reordered would break the compression stream.
+ */
+public class CompressionFilter extends IFilterAdapter {
+    private final static Logger log = Logger.get(CompressionFilter.class, Logger.Level.INFO);
+    private static final AttributeKey CODEC = new AttributeKey(CompressionFilter.class, "codec");
+
+    /** The compression level of the new sessions */
+    private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    /** The messages smaller than that are not compressed */
+    private volatile int minCompressSize = 64;
+
+    /** The preset dictionary, null if none */
+    private volatile byte[] dictionary;
+
+    /** The largest frame accepted from the remote endpoint */
+    private volatile int maxFrameSize = 16 * 1024 * 1024;
+
+    /**
+     * Constructor with the default compression level
+     */
+    public CompressionFilter() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public CompressionFilter(int level) {
+        setLevel(level);
+    }
+
+    /**
+     * @return the compression level of the new sessions
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level the compression level of the new sessions, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public void setLevel(int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("level: " + level + " (expected: -1-9)");
+        }
+        this.level = level;
+    }
+
+    /**
+     * @return the size under which the messages are sent uncompressed
+     */
+    public int getMinCompressSize() {
+        return minCompressSize;
+    }
+
+    /**
+     * @param minCompressSize the size under which the messages are sent uncompressed, 0 to compress them all
+     */
+    public void setMinCompressSize(int minCompressSize) {
+        if (minCompressSize < 0) {
+            throw new IllegalArgumentException("minCompressSize: " + minCompressSize + " (expected: 0+)");
+        }
+        this.minCompressSize = minCompressSize;
+    }
+
+    /**
+     * @return a copy of the preset dictionary, <code>null</code> if none
+     */
+    public byte[] getDictionary() {
+        byte[] d = dictionary;
+        return (d == null) ? null : d.clone();
+    }
+
+    /**
+     * Set the preset dictionary of the new sessions, bytes expected to be common in the messages
+     *
+     * @param dictionary the dictionary, <code>null</code> for none
+     */
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = (dictionary == null) ? null : dictionary.clone();
+    }
+
+    /**
+     * @return the largest frame accepted from the remote endpoint
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @param maxFrameSize the largest frame accepted from the remote endpoint,
+     *                     a bigger one closes the session
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize: " + maxFrameSize + " (expected: 1+)");
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @param session the session
+     * @return a snapshot of the compression counters of the session, <code>null</code> if it used none
+     */
+    public Statistics getStatistics(IOSession session) {
+        Codec codec = (Codec) session.getAttribute(CODEC);
+        return (codec == null) ? null : codec.snapshot();
+    }
+
+    private Codec getCodec(IOSession session) {
+        Codec codec = (Codec) session.getAttribute(CODEC);
+        if (codec == null) {
+            codec = new Codec(level, dictionary);
+            Codec old = (Codec) session.setAttributeIfAbsent(CODEC, codec);
+            if (old != null) {
+                codec.end();
+                codec = old;
+            }
+        }
+        return codec;
+    }
+
+    private void disposeCodec(IOSession session) {
+        Codec codec = (Codec) session.removeAttribute(CODEC);
+        if (codec != null) {
+            codec.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPostRemove(IFilterChain parent, String name) throws Exception {
+        disposeCodec(parent.getSession());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionClosed(IFilterChain.Entry next, IOSession session) throws Exception {
+        disposeCodec(session);
+        next.getFilter().sessionClosed(next.getNextEntry(), session);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void filterWrite(IFilterChain.Entry prev, IOSession session, IWritePacket writePacket) throws Exception {
+        Object message = writePacket.getMessage();
+        if (!(message instanceof IoBuffer) || !((IoBuffer) message).hasRemaining()) {
+            prev.getFilter().filterWrite(prev.getPrevEntry(), session, writePacket);
+            return;
+        }
+
+        Codec codec = getCodec(session);
+        // Out of the NORMAL lane, a compressed frame could be written out of the stream order
+        int minSize = (writePacket.getPriority() == WritePriority.NORMAL) ? minCompressSize : Integer.MAX_VALUE;
+        synchronized (codec.deflater) {
+            // The frames must be queued in the order of the compression stream
+            IoBuffer frame = codec.deflate((IoBuffer) message, minSize);
+            if (frame != null) {
+                writePacket.setMessage(frame);
+            }
+            prev.getFilter().filterWrite(prev.getPrevEntry(), session, writePacket);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived(IFilterChain.Entry next, IOSession session, Object message) throws Exception {
+        if (!(message instanceof IoBuffer)) {
+            next.getFilter().messageReceived(next.getNextEntry(), session, message);
+            return;
+        }
+
+        Codec codec = getCodec(session);
+        IoBuffer in = (IoBuffer) message;
+        while (in.hasRemaining()) {
+            IoBuffer decoded;
+            try {
+                decoded = codec.inflate(in, maxFrameSize, dictionary);
+            } catch (IOException e) {
+                // The stream can't be resynchronized
+                log.e("messageReceived: session id={} {}", session.getId(), e.getMessage());
+                in.position(in.limit());
+                session.closeNow();
+                throw e;
+            }
+            if (decoded != null) {
+                next.getFilter().messageReceived(next.getNextEntry(), session, decoded);
+            }
+        }
+    }
+
+    /**
+     * The compression counters of a session
+     */
+    public static final class Statistics {
+        private final long rawWrittenBytes;
+        private final long compressedWrittenBytes;
+        private final long deflateNanos;
+        private final long compressedReadBytes;
+        private final long rawReadBytes;
+        private final long inflateNanos;
+
+        private Statistics(long rawWrittenBytes, long compressedWrittenBytes, long deflateNanos,
+                           long compressedReadBytes, long rawReadBytes, long inflateNanos) {
+            this.rawWrittenBytes = rawWrittenBytes;
+            this.compressedWrittenBytes = compressedWrittenBytes;
+            this.deflateNanos = deflateNanos;
+            this.compressedReadBytes = compressedReadBytes;
+            this.rawReadBytes = rawReadBytes;
+            this.inflateNanos = inflateNanos;
+        }
+
+        /**
+         * @return the bytes of the messages written, before compression
+         */
+        public long getRawWrittenBytes() {
+            return rawWrittenBytes;
+        }
+
+        /**
+         * @return the bytes of the frames written
+         */
+        public long getCompressedWrittenBytes() {
+            return compressedWrittenBytes;
+        }
+
+        /**
+         * @return the time spent compressing and framing the messages written, in nanoseconds
+         */
+        public long getDeflateNanos() {
+            return deflateNanos;
+        }
+
+        /**
+         * @return the bytes of the frames read
+         */
+        public long getCompressedReadBytes() {
+            return compressedReadBytes;
+        }
+
+        /**
+         * @return the bytes of the messages read, after decompression
+         */
+        public long getRawReadBytes() {
+            return rawReadBytes;
+        }
+
+        /**
+         * @return the time spent decompressing the messages read, in nanoseconds
+         */
+        public long getInflateNanos() {
+            return inflateNanos;
+        }
+
+        /**
+         * @return the frames bytes written per message byte, 1 if nothing was written
+         */
+        public double getWriteRatio() {
+            return (rawWrittenBytes == 0) ? 1.0 : (double) compressedWrittenBytes / rawWrittenBytes;
+        }
+
+        /**
+         * @return the frames bytes read per message byte, 1 if nothing was read
+         */
+        public double getReadRatio() {
+            return (rawReadBytes == 0) ? 1.0 : (double) compressedReadBytes / rawReadBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "CompressionStatistics[written=" + rawWrittenBytes + "B->" + compressedWrittenBytes + "B"
+                    + " deflate=" + (deflateNanos / 1000L) + "us"
+                    + " read=" + compressedReadBytes + "B->" + rawReadBytes + "B"
+                    + " inflate=" + (inflateNanos / 1000L) + "us]";
+        }
+    }
+
+    /**
+     * The compression streams of a session, with their scratch buffers.
+     * The deflating side is used under the deflater lock by the writers,
+     * the inflating side only by the processor thread.
+     */
+    private static final class Codec {
+        /** The longest varint header, for a 32 bits value */
+        private static final int MAX_HEADER = 5;
+
+        private final Deflater deflater;
+        private final Inflater inflater = new Inflater();
+        private boolean ended;
+
+        // Deflating
+        private byte[] rawOut = new byte[256];
+        private byte[] deflated = new byte[256];
+        private volatile long rawWrittenBytes;
+        private volatile long compressedWrittenBytes;
+        private volatile long deflateNanos;
+
+        // Inflating, a frame is gathered until complete
+        private int header;
+        private int headerShift;
+        private int frameLength = -1;
+        private boolean frameCompressed;
+        private byte[] frame = new byte[256];
+        private int framePosition;
+        private byte[] inflated = new byte[256];
+        private boolean dictionarySet;
+        private volatile long compressedReadBytes;
+        private volatile long rawReadBytes;
+        private volatile long inflateNanos;
+
+        private Codec(int level, byte[] dictionary) {
+            deflater = new Deflater(level);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+        }
+
+        /**
+         * Frame a message, compressed unless smaller than the minimum size.
+         * Called under the deflater lock
+         *
+         * @return the frame, <code>null</code> if the codec is ended
+         */
+        private IoBuffer deflate(IoBuffer message, int minCompressSize) {
+            if (ended) {
+                return null;
+            }
+            long start = System.nanoTime();
+            ByteBuffer src = message.buf().duplicate();
+            int length = src.remaining();
+            IoBuffer out;
+            if (length < minCompressSize) {
+                out = frame(length, false);
+                out.buf().put(src);
+            } else {
+                rawOut = ensure(rawOut, length, 0);
+                src.get(rawOut, 0, length);
+                deflater.setInput(rawOut, 0, length);
+                int count = 0;
+                while (true) {
+                    count += deflater.deflate(deflated, count, deflated.length - count, Deflater.SYNC_FLUSH);
+                    if (count < deflated.length) {
+                        break;
+                    }
+                    // The output may not be complete
+                    deflated = ensure(deflated, count + 1, count);
+                }
+                out = frame(count, true);
+                out.buf().put(deflated, 0, count);
+            }
+            out.flip();
+            rawWrittenBytes += length;
+            compressedWrittenBytes += out.remaining();
+            deflateNanos += System.nanoTime() - start;
+            return out;
+        }
+
+        private static IoBuffer frame(int length, boolean compressed) {
+            int header = (length << 1) | (compressed ? 1 : 0);
+            IoBuffer out = new SimpleIoBuffer();
+            out.allocate(MAX_HEADER + length);
+            ByteBuffer buf = out.buf();
+            while ((header & ~0x7F) != 0) {
+                buf.put((byte) ((header & 0x7F) | 0x80));
+                header >>>= 7;
+            }
+            buf.put((byte) header);
+            return out;
+        }
+
+        /**
+         * Gather the bytes of the current frame from the received buffer, only called by the processor thread
+         *
+         * @return the message of the frame once complete, or <code>null</code>
+         */
+        private IoBuffer inflate(IoBuffer in, int maxFrameSize, byte[] dictionary) throws IOException {
+            if (frameLength < 0) {
+                if (!readHeader(in)) {
+                    return null;
+                }
+                if (frameLength > maxFrameSize) {
+                    throw new IOException("frame of " + frameLength + " bytes over the maximum " + maxFrameSize);
+                }
+                frame = ensure(frame, frameLength, 0);
+                framePosition = 0;
+            }
+
+            int n = Math.min(in.remaining(), frameLength - framePosition);
+            in.buf().get(frame, framePosition, n);
+            framePosition += n;
+            if (framePosition < frameLength) {
+                return null;
+            }
+
+            int length = frameLength;
+            frameLength = -1;
+            compressedReadBytes += length;
+            if (!frameCompressed) {
+                rawReadBytes += length;
+                return copyOf(frame, length);
+            }
+
+            long start = System.nanoTime();
+            try {
+                inflater.setInput(frame, 0, length);
+                int count = 0;
+                while (true) {
+                    int r = inflater.inflate(inflated, count, inflated.length - count);
+                    count += r;
+                    if (r == 0 && inflater.needsDictionary()) {
+                        if (dictionary == null || dictionarySet) {
+                            throw new IOException("the compression stream needs a preset dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                        dictionarySet = true;
+                    } else if (count == inflated.length) {
+                        inflated = ensure(inflated, count + 1, count);
+                    } else if (r == 0 && (inflater.needsInput() || inflater.finished())) {
+                        break;
+                    }
+                }
+                rawReadBytes += count;
+                return copyOf(inflated, count);
+            } catch (DataFormatException e) {
+                throw new IOException("corrupted compression stream: " + e.getMessage(), e);
+            } finally {
+                inflateNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * @return <tt>true</tt> once the header of the frame is read
+         */
+        private boolean readHeader(IoBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                int b = in.get() & 0xFF;
+                header |= (b & 0x7F) << headerShift;
+                headerShift += 7;
+                if ((b & 0x80) == 0) {
+                    frameLength = header >>> 1;
+                    frameCompressed = (header & 1) != 0;
+                    compressedReadBytes += headerShift / 7;
+                    header = 0;
+                    headerShift = 0;
+                    return true;
+                }
+                if (headerShift >= 7 * MAX_HEADER) {
+                    throw new IOException("invalid frame header");
+                }
+            }
+            return false;
+        }
+
+        private static IoBuffer copyOf(byte[] bytes, int length) {
+            IoBuffer out = new SimpleIoBuffer();
+            out.allocate(length);
+            out.buf().put(bytes, 0, length);
+            out.flip();
+            return out;
+        }
+
+        /**
+         * @return the array if it holds the capacity, or a bigger one with its first bytes
+         */
+        private static byte[] ensure(byte[] array, int capacity, int keep) {
+            if (array.length >= capacity) {
+                return array;
+            }
+            byte[] bigger = new byte[Math.max(capacity, array.length << 1)];
+            System.arraycopy(array, 0, bigger, 0, keep);
+            return bigger;
+        }
+
+        private Statistics snapshot() {
+            return new Statistics(rawWrittenBytes, compressedWrittenBytes, deflateNanos,
+                    compressedReadBytes, rawReadBytes, inflateNanos);
+        }
+
+        /**
+         * Release the native streams
+         */
+        private void end() {
+            synchronized (deflater) {
+                ended = true;
+                deflater.end();
+            }
+            inflater.end();
+        }
+    }
+}
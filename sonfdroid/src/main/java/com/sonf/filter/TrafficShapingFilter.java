@@ -0,0 +1,472 @@
+package com.sonf.filter;
+
+import android.os.SystemClock;
+
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.filter.IFilterAdapter;
+import com.sonf.core.filter.IFilterChain;
+import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.session.AttributeKey;
+import com.sonf.core.session.IOSession;
+import com.sonf.core.session.ReadSuspension;
+import com.sonf.core.write.IWritePacket;
+import com.sonf.core.write.WriteException;
+import com.yynie.myutils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A filter which caps the bandwidth of each session and of all the sessions it is added to,
+ * with token buckets of {@link IoBuffer} bytes.
+ *
+ * A write over the budget is held by the filter and passed on by a timer when the buckets
+ * have refilled, the writer and the processor never wait. A read over the budget is delivered,
+ * then the reading of the session is suspended until the buckets have refilled.
+ *
+ * The global buckets are the ones of the filter instance, so a single instance added to the
+ * {@link com.sonf.core.filter.FilterChainBuilder} of a controller caps all its sessions.
+ * Add it first, before the {@link ProtocolFilter}, to meter the encoded bytes.
+ * Note that {@link IOSession#closeOnFlush()} doesn't wait for the writes held by the filter.
+ */
+public class TrafficShapingFilter extends IFilterAdapter {
+    private final static Logger log = Logger.get(TrafficShapingFilter.class, Logger.Level.INFO);
+    private static final AttributeKey SHAPER = new AttributeKey(TrafficShapingFilter.class, "shaper");
+
+    /** The scheduler releasing the held writes and resuming the reads */
+    private final ScheduledExecutorService scheduler;
+
+    /** A flag marked that the scheduler was created locally and so it should be shutdown on dispose */
+    private final boolean createdScheduler;
+
+    private final Bucket globalRead = new Bucket();
+    private final Bucket globalWrite = new Bucket();
+
+    // The limits in bytes per second, 0 if unlimited
+    private volatile long sessionReadLimit;
+    private volatile long sessionWriteLimit;
+    private volatile long globalReadLimit;
+    private volatile long globalWriteLimit;
+
+    /** The bytes a bucket can hold, as milliseconds of its limit */
+    private volatile long burstMillis = 500L;
+
+    /**
+     * Constructor with a scheduler of its own
+     */
+    public TrafficShapingFilter() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param scheduler the scheduler releasing the held writes and resuming the reads.
+     *                  Pass <code>null</code> if you want this filter to create a default one.
+     */
+    public TrafficShapingFilter(ScheduledExecutorService scheduler) {
+        if (scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+            this.createdScheduler = true;
+        } else {
+            this.scheduler = scheduler;
+            this.createdScheduler = false;
+        }
+    }
+
+    /**
+     * Shutdown the scheduler if it was created by this filter
+     */
+    public void dispose() {
+        if (createdScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * @return the read limit of each session in bytes per second, 0 if unlimited
+     */
+    public long getSessionReadLimit() {
+        return sessionReadLimit;
+    }
+
+    /**
+     * @param limit the read limit of each session in bytes per second, 0 for unlimited
+     */
+    public void setSessionReadLimit(long limit) {
+        sessionReadLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return the write limit of each session in bytes per second, 0 if unlimited
+     */
+    public long getSessionWriteLimit() {
+        return sessionWriteLimit;
+    }
+
+    /**
+     * @param limit the write limit of each session in bytes per second, 0 for unlimited
+     */
+    public void setSessionWriteLimit(long limit) {
+        sessionWriteLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return the read limit of all the sessions in bytes per second, 0 if unlimited
+     */
+    public long getGlobalReadLimit() {
+        return globalReadLimit;
+    }
+
+    /**
+     * @param limit the read limit of all the sessions in bytes per second, 0 for unlimited
+     */
+    public void setGlobalReadLimit(long limit) {
+        globalReadLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return the write limit of all the sessions in bytes per second, 0 if unlimited
+     */
+    public long getGlobalWriteLimit() {
+        return globalWriteLimit;
+    }
+
+    /**
+     * @param limit the write limit of all the sessions in bytes per second, 0 for unlimited
+     */
+    public void setGlobalWriteLimit(long limit) {
+        globalWriteLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return the burst a bucket allows, in milliseconds of its limit
+     */
+    public long getBurstMillis() {
+        return burstMillis;
+    }
+
+    /**
+     * @param burstMillis the burst a bucket allows, in milliseconds of its limit
+     */
+    public void setBurstMillis(long burstMillis) {
+        if (burstMillis <= 0) {
+            throw new IllegalArgumentException("burstMillis: " + burstMillis + " (expected: 1+)");
+        }
+        this.burstMillis = burstMillis;
+    }
+
+    private static long checkLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit: " + limit + " (expected: 0+)");
+        }
+        return limit;
+    }
+
+    /**
+     * @return the bytes per second read by all the sessions, over the last second
+     */
+    public long getGlobalReadRate() {
+        return globalRead.getRate();
+    }
+
+    /**
+     * @return the bytes per second written by all the sessions, over the last second
+     */
+    public long getGlobalWriteRate() {
+        return globalWrite.getRate();
+    }
+
+    /**
+     * @param session the session
+     * @return the bytes per second read by the session, over the last second
+     */
+    public long getReadRate(IOSession session) {
+        Shaper shaper = (Shaper) session.getAttribute(SHAPER);
+        return (shaper == null) ? 0L : shaper.read.getRate();
+    }
+
+    /**
+     * @param session the session
+     * @return the bytes per second written by the session, over the last second
+     */
+    public long getWriteRate(IOSession session) {
+        Shaper shaper = (Shaper) session.getAttribute(SHAPER);
+        return (shaper == null) ? 0L : shaper.write.getRate();
+    }
+
+    /**
+     * @param session the session
+     * @return the number of writes of the session held by the filter
+     */
+    public int getHeldWrites(IOSession session) {
+        Shaper shaper = (Shaper) session.getAttribute(SHAPER);
+        if (shaper == null) {
+            return 0;
+        }
+        synchronized (shaper) {
+            return shaper.held.size();
+        }
+    }
+
+    private Shaper getShaper(IOSession session) {
+        Shaper shaper = (Shaper) session.getAttribute(SHAPER);
+        if (shaper == null) {
+            shaper = new Shaper(session);
+            Shaper old = (Shaper) session.setAttributeIfAbsent(SHAPER, shaper);
+            if (old != null) {
+                shaper = old;
+            }
+        }
+        return shaper;
+    }
+
+    private static int sizeOf(Object message) {
+        return (message instanceof IoBuffer) ? ((IoBuffer) message).remaining() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void filterWrite(IFilterChain.Entry prev, IOSession session, IWritePacket writePacket) throws Exception {
+        int size = sizeOf(writePacket.getMessage());
+        Shaper shaper = getShaper(session);
+        long now = SystemClock.elapsedRealtime();
+        long burst = burstMillis;
+        synchronized (shaper) {
+            long delay = Math.max(shaper.write.reserve(size, now, sessionWriteLimit, burst),
+                    globalWrite.reserve(size, now, globalWriteLimit, burst));
+            if (delay == 0 && shaper.held.isEmpty()) {
+                // Passed on under the lock, so it can't overtake a held write being released
+                shaper.passOn(prev, writePacket, size, now);
+                return;
+            }
+            shaper.held.offer(new HeldWrite(prev, writePacket, size, now + delay));
+            shaper.scheduleRelease(now);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived(IFilterChain.Entry next, IOSession session, Object message) throws Exception {
+        int size = sizeOf(message);
+        if (size > 0) {
+            Shaper shaper = getShaper(session);
+            long now = SystemClock.elapsedRealtime();
+            long burst = burstMillis;
+            long delay;
+            synchronized (shaper) {
+                delay = Math.max(shaper.read.reserve(size, now, sessionReadLimit, burst),
+                        globalRead.reserve(size, now, globalReadLimit, burst));
+                shaper.read.meter(size, now);
+            }
+            globalRead.meter(size, now);
+            if (delay > 0) {
+                shaper.suspendRead(delay);
+            }
+        }
+        next.getFilter().messageReceived(next.getNextEntry(), session, message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionClosed(IFilterChain.Entry next, IOSession session) throws Exception {
+        Shaper shaper = (Shaper) session.removeAttribute(SHAPER);
+        if (shaper != null) {
+            shaper.dispose();
+        }
+        next.getFilter().sessionClosed(next.getNextEntry(), session);
+    }
+
+    /**
+     * A write held until its release time
+     */
+    private static final class HeldWrite {
+        private final IFilterChain.Entry prev;
+        private final IWritePacket packet;
+        private final int size;
+        private final long releaseTime;
+
+        private HeldWrite(IFilterChain.Entry prev, IWritePacket packet, int size, long releaseTime) {
+            this.prev = prev;
+            this.packet = packet;
+            this.size = size;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    /**
+     * The buckets and the held writes of a session
+     */
+    private final class Shaper implements Runnable {
+        private final IOSession session;
+        private final Bucket read = new Bucket();
+        private final Bucket write = new Bucket();
+        /** The release times only grow, each write reserves its bytes after the previous ones */
+        private final Queue<HeldWrite> held = new ArrayDeque<HeldWrite>();
+        private ScheduledFuture<?> releaseTask;
+        private ScheduledFuture<?> resumeTask;
+        private boolean disposed;
+
+        private Shaper(IOSession session) {
+            this.session = session;
+        }
+
+        /**
+         * Pass a write on to the previous filter, measuring the rates. Called under the lock
+         */
+        private void passOn(IFilterChain.Entry prev, IWritePacket packet, int size, long now) throws Exception {
+            write.meter(size, now);
+            globalWrite.meter(size, now);
+            prev.getFilter().filterWrite(prev.getPrevEntry(), session, packet);
+        }
+
+        /**
+         * Schedule the release of the head write, if not done yet. Called under the lock
+         */
+        private void scheduleRelease(long now) {
+            if (releaseTask != null || disposed) {
+                return;
+            }
+            HeldWrite head = held.peek();
+            if (head != null) {
+                releaseTask = scheduler.schedule(this, Math.max(0L, head.releaseTime - now), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Release the writes whose time has come
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                releaseTask = null;
+                long now = SystemClock.elapsedRealtime();
+                HeldWrite w;
+                while (!disposed && (w = held.peek()) != null && w.releaseTime <= now) {
+                    held.poll();
+                    try {
+                        passOn(w.prev, w.packet, w.size, now);
+                    } catch (Exception e) {
+                        fail(w.packet, e);
+                        session.getFilterChain().fireExceptionCaught(e);
+                    }
+                }
+                scheduleRelease(now);
+            }
+        }
+
+        private void suspendRead(long delay) {
+            synchronized (this) {
+                if (resumeTask != null || disposed) {
+                    return;
+                }
+                // Before scheduling, the resume could come first otherwise
+                session.suspendRead(ReadSuspension.TRAFFIC_SHAPING);
+                resumeTask = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Shaper.this) {
+                            resumeTask = null;
+                        }
+                        session.resumeRead(ReadSuspension.TRAFFIC_SHAPING);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void dispose() {
+            synchronized (this) {
+                disposed = true;
+                if (releaseTask != null) {
+                    releaseTask.cancel(false);
+                    releaseTask = null;
+                }
+                if (resumeTask != null) {
+                    resumeTask.cancel(false);
+                    resumeTask = null;
+                }
+                if (!held.isEmpty()) {
+                    log.i("dispose: session id={} drops {} held writes", session.getId(), held.size());
+                }
+                HeldWrite w;
+                while ((w = held.poll()) != null) {
+                    fail(w.packet, new WriteException("session closed!"));
+                }
+            }
+        }
+
+        private void fail(IWritePacket packet, Throwable cause) {
+            IWriteFuture future = packet.getFuture();
+            if (future != null) {
+                future.setException(cause);
+            }
+        }
+    }
+
+    /**
+     * A token bucket, which also measures the rate of the bytes going through.
+     * The tokens may go negative, the debt telling how long the next bytes have to wait.
+     */
+    private static final class Bucket {
+        private double tokens;
+        private long lastTime;
+        /** The rate over the last complete second */
+        private long rate;
+        private long meterStart;
+        private long meterBytes;
+
+        /**
+         * Take the bytes from the bucket
+         *
+         * @return the milliseconds to wait for the bucket to have refilled them, 0 if none
+         */
+        synchronized long reserve(int bytes, long now, long limit, long burstMillis) {
+            if (limit == 0) {
+                tokens = 0;
+                lastTime = now;
+                return 0L;
+            }
+
+            double capacity = limit * burstMillis / 1000.0;
+            if (lastTime == 0L) {
+                tokens = capacity;
+            } else if (now > lastTime) {
+                tokens = Math.min(capacity, tokens + (now - lastTime) * limit / 1000.0);
+            }
+            lastTime = now;
+            tokens -= bytes;
+            return (tokens >= 0) ? 0L : (long) Math.ceil(-tokens * 1000.0 / limit);
+        }
+
+        /**
+         * Count the bytes going through into the rate
+         */
+        synchronized void meter(int bytes, long now) {
+            if (meterStart == 0L) {
+                meterStart = now;
+            }
+            long interval = now - meterStart;
+            if (interval >= 1000L) {
+                rate = meterBytes * 1000L / interval;
+                meterStart = now;
+                meterBytes = 0L;
+            }
+            meterBytes += bytes;
+        }
+
+        synchronized long getRate() {
+            meter(0, SystemClock.elapsedRealtime());
+            return rate;
+        }
+    }
+}
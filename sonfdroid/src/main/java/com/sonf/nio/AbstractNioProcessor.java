@@ -0,0 +1,416 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOController;
+import com.sonf.core.RuntimeIoException;
+import com.sonf.polling.AbstractPollingIoProcessor;
+import com.sonf.polling.SessionState;
+import com.yynie.myutils.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Selector based processor shared by the NIO transports
+ * Inheriting class of {@link AbstractPollingIoProcessor}.
+ * Subclasses only implement the channel specific read and write operations.
+ */
+public abstract class AbstractNioProcessor<S extends AbstractNioSession> extends AbstractPollingIoProcessor<S> {
+    private final Logger log = Logger.get(AbstractNioProcessor.class, Logger.Level.INFO);
+    /** Whether the new processors replace the selected-key set of their selector, see {@link #setOptimizeSelectedKeys(boolean)} */
+    private static volatile boolean optimizeSelectedKeys = Boolean.getBoolean("sonf.nio.optimizeSelectedKeys");
+
+    /** The selector associated with this processor */
+    private Selector selector;
+    /** The array backed selected-key set of the selector, null if not optimized */
+    private SelectedSelectionKeySet selectedKeys;
+    /** Reused to walk the selected sessions of the optimized set */
+    private final SelectedSessionIterator selectedSessionIterator = new SelectedSessionIterator();
+    /**
+     * Constructor
+     *
+     * @param executor The executor to use.
+     *                 It should be the same one with {@link IOController}
+     */
+    protected AbstractNioProcessor(Executor executor) {
+        super(executor);
+
+        try {
+            // Open a new selector
+            selector = openSelector();
+        } catch (IOException e) {
+            throw new RuntimeIoException("Failed to open a selector.", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void registerNewSelector() throws IOException {
+        synchronized (selector) {
+            Set<SelectionKey> keys = selector.keys();
+
+            // Open a new selector
+            Selector newSelector = openSelector();
+
+            // Loop on all the registered keys, and register them on the new selector
+            for (SelectionKey key : keys) {
+                SelectableChannel ch = key.channel();
+
+                // Don't forget to attache the session, and back !
+                AbstractNioSession session = (AbstractNioSession) key.attachment();
+                SelectionKey newKey = ch.register(newSelector, key.interestOps(), session);
+                session.setSelectionKey(newKey);
+            }
+
+            // Now we can close the old selector and switch it
+            selector.close();
+            selector = newSelector;
+        }
+    }
+
+    /**
+     * Enable or disable the replacement of the selector's internal selected-key set by an array,
+     * which avoids hashing the selected keys and allocating an iterator on every select.
+     * It relies on reflection into the selector implementation, and silently falls back to the
+     * default set if that is denied. It applies to the processors created afterwards.
+     * The default is given by the <tt>sonf.nio.optimizeSelectedKeys</tt> system property, or disabled.
+     *
+     * @param optimize <tt>true</tt> to enable
+     */
+    public static void setOptimizeSelectedKeys(boolean optimize) {
+        optimizeSelectedKeys = optimize;
+    }
+
+    /**
+     * @return <tt>true</tt> if the selected-key set of this processor's selector is the array backed one
+     */
+    public boolean isSelectedKeysOptimized() {
+        return selectedKeys != null;
+    }
+
+    private Selector openSelector() throws IOException {
+        Selector newSelector = Selector.open();
+        selectedKeys = null;
+        if (optimizeSelectedKeys) {
+            SelectedSelectionKeySet keySet = new SelectedSelectionKeySet();
+            try {
+                Class<?> implClass = Class.forName("sun.nio.ch.SelectorImpl", false, Selector.class.getClassLoader());
+                if (implClass.isInstance(newSelector)) {
+                    Field selectedKeysField = implClass.getDeclaredField("selectedKeys");
+                    Field publicSelectedKeysField = implClass.getDeclaredField("publicSelectedKeys");
+                    selectedKeysField.setAccessible(true);
+                    publicSelectedKeysField.setAccessible(true);
+                    selectedKeysField.set(newSelector, keySet);
+                    publicSelectedKeysField.set(newSelector, keySet);
+                    selectedKeys = keySet;
+                } else {
+                    log.w("openSelector: unknown selector {}, selected keys not optimized", newSelector.getClass());
+                }
+            } catch (Throwable t) {
+                // Fall back to the default selected-key set
+                log.w("openSelector: selected keys not optimized, {}", t);
+            }
+        }
+        return newSelector;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isBrokenConnection() throws IOException {
+        // A flag set to true if we find a broken session
+        boolean brokenSession = false;
+
+        synchronized (selector) {
+            // Get the selector keys
+            Set<SelectionKey> keys = selector.keys();
+
+            // Loop on all the keys to see if one of them has a closed channel
+            for (SelectionKey key : keys) {
+                S session = (S) key.attachment();
+
+                if (isDisconnected(session)) {
+                    // The channel is not connected anymore. Cancel
+                    // the associated key then.
+                    key.cancel();
+
+                    // Set the flag to true to avoid a selector switch
+                    brokenSession = true;
+                }
+            }
+        }
+
+        return brokenSession;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected SessionState getState(S session) {
+        SelectionKey key = session.getSelectionKey();
+
+        if (key == null) {
+            // The channel is not yet registred to a selector
+            return SessionState.OPENING;
+        }
+
+        if (key.isValid()) {
+            // The session is opened
+            return SessionState.OPENED;
+        } else {
+            // The session still as to be closed
+            return SessionState.CLOSING;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void initToRead(S session) throws Exception {
+        SelectableChannel ch = (SelectableChannel) session.getChannel();
+        ch.configureBlocking(false);
+        session.setSelectionKey(ch.register(selector, SelectionKey.OP_READ, session));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void destroy(S session) throws Exception {
+        SelectableChannel ch = (SelectableChannel) session.getChannel();
+
+        SelectionKey key = session.getSelectionKey();
+
+        if (key != null) {
+            log.d("destroy  key canceled");
+            key.cancel();
+        }
+
+        if ( ch.isOpen() ) {
+            ch.close();
+            log.d("destroy  channel closed");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int select(long timeout) throws Exception {
+        if (selectedKeys != null) {
+            // Forget the keys left by an interrupted walk, the ready ones are selected again
+            selectedKeys.reset();
+        }
+        return selector.select(timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int selectNow() throws Exception {
+        if (selectedKeys != null) {
+            selectedKeys.reset();
+        }
+        return selector.selectNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isSelectorEmpty() {
+        return selector.keys().isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<S> allSessions() {
+        return new IOSessionIterator(selector.keys());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<S> selectedSessions() {
+        if (selectedKeys != null) {
+            selectedSessionIterator.index = 0;
+            return selectedSessionIterator;
+        }
+        return new IOSessionIterator(selector.selectedKeys());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setInterestedInWrite(S session, boolean isInterested){
+        SelectionKey key = session.getSelectionKey();
+
+        if ((key == null) || !key.isValid()) {
+            return;
+        }
+
+        int newInterestOps = key.interestOps();
+
+        if (isInterested) {
+            newInterestOps |= SelectionKey.OP_WRITE;
+        } else {
+            newInterestOps &= ~SelectionKey.OP_WRITE;
+        }
+
+        key.interestOps(newInterestOps);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setInterestedInRead(S session, boolean isInterested){
+        SelectionKey key = session.getSelectionKey();
+
+        if ((key == null) || !key.isValid()) {
+            return;
+        }
+
+        int oldInterestOps = key.interestOps();
+        int newInterestOps = isInterested ? (oldInterestOps | SelectionKey.OP_READ) : (oldInterestOps & ~SelectionKey.OP_READ);
+
+        if (newInterestOps != oldInterestOps) {
+            key.interestOps(newInterestOps);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isReadable(S session) {
+        SelectionKey key = session.getSelectionKey();
+
+        return (key != null) && key.isValid() && key.isReadable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDispose() throws Exception {
+        selector.close();
+        selector = null;
+        log.d("doDispose: selector closed");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isWritable(S session) {
+        SelectionKey key = session.getSelectionKey();
+
+        return (key != null) && key.isValid() && key.isWritable();
+    }
+
+    /**
+     * Tells if the channel of a session is not connected anymore
+     *
+     * @param session the session attached to a selection key
+     * @return <tt>true</tt> if the channel has been brutally closed
+     */
+    protected abstract boolean isDisconnected(S session);
+
+    /**
+     * Walk the optimized selected-key set by index, clearing each slot as it goes.
+     * remove() does nothing since the set is cleared once walked.
+     */
+    private final class SelectedSessionIterator implements Iterator<S> {
+        private int index;
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (index < selectedKeys.size) {
+                return true;
+            }
+            selectedKeys.size = 0;
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public S next() {
+            if (index >= selectedKeys.size) {
+                throw new NoSuchElementException();
+            }
+            SelectionKey key = selectedKeys.keys[index];
+            selectedKeys.keys[index++] = null;
+            return (S) key.attachment();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+        }
+    }
+
+    protected static class IOSessionIterator<S> implements Iterator<S> {
+        private final Iterator<SelectionKey> iterator;
+
+        /**
+         * Create this iterator as a wrapper on top of the selectionKey Set.
+         *
+         * @param keys The set of selected sessions
+         */
+        private IOSessionIterator(Set<SelectionKey> keys) {
+            iterator = keys.iterator();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public S next() {
+            SelectionKey key = iterator.next();
+            S nioSession = (S) key.attachment();
+            return nioSession;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            iterator.remove();
+        }
+    }
+}
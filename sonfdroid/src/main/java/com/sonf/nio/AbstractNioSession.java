@@ -0,0 +1,170 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOController;
+import com.sonf.core.IOProcessor;
+import com.sonf.core.future.ICloseFuture;
+import com.sonf.core.future.IConnectFuture;
+import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.session.AbstractIOConfig;
+import com.sonf.core.session.AbstractIOSession;
+import com.sonf.future.CloseFuture;
+import com.sonf.future.ConnectFuture;
+import com.sonf.future.WriteFuture;
+import com.yynie.myutils.Logger;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Base class of the sessions handled by an {@link AbstractNioProcessor}
+ * It holds the {@link SelectionKey} and the remote address of the session.
+ * Inheriting the class of {@link AbstractIOSession}
+ */
+public abstract class AbstractNioSession<CH extends SelectableChannel, CG extends AbstractIOConfig>
+        extends AbstractIOSession<CH, CG> {
+    private final static Logger log = Logger.get(AbstractNioSession.class, Logger.Level.INFO);
+    private static final AtomicReferenceFieldUpdater<AbstractNioSession, CloseFuture> CLOSE_FUTURE =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractNioSession.class, CloseFuture.class, "closeFuture");
+
+    private InetSocketAddress remoteAddress;
+    private String host;
+    private int port;
+    private SelectionKey selectionKey;
+    /**
+     * A future that will be set 'closed' when the connection is closed, created on demand.
+     */
+    private volatile CloseFuture closeFuture;
+
+    /**
+     * Constructor
+     *
+     * @param controller controller provided service for this session
+     * @param processor processor handling the I/O operations of this session
+     */
+    protected AbstractNioSession(IOController controller, IOProcessor<? extends AbstractNioSession> processor) {
+        super(controller, processor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected IConnectFuture getNewConnectFuture(){
+        return new ConnectFuture(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ICloseFuture getCloseFuture(){
+        CloseFuture future = closeFuture;
+        if (future == null) {
+            CLOSE_FUTURE.compareAndSet(this, null, new CloseFuture(this));
+            future = closeFuture;
+        }
+        return future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected IWriteFuture getNewWriteFuture(){
+        return new WriteFuture(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRemoteAddress(SocketAddress remoteAddress) {
+        if(!isNew()){
+            throw new IllegalStateException("Can change remote address of a session in use");
+        }
+        if(remoteAddress instanceof InetSocketAddress) {
+            this.remoteAddress = (InetSocketAddress) remoteAddress;
+        }else{
+            throw new RuntimeException("Unsupported remoteAddress class!");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRemoteAddress(String remoteHost, int remotePort) {
+        if(!isNew()){
+            throw new IllegalStateException("Can change remote address of a session in use");
+        }
+        this.remoteAddress = null;
+        this.host = remoteHost;
+        this.port = remotePort;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void parseRemoteAddress() throws UnknownHostException {
+        if(remoteAddress != null) return;
+
+        if(!DNSCache.isIpV4(host)) {
+            log.i("parseRemoteAddress:{}", host);
+            InetAddress inetAddress = InetAddress.getByName(host);
+            String ip = inetAddress.getHostAddress();
+            remoteAddress = new InetSocketAddress(ip, port);
+        }else{
+            remoteAddress = new InetSocketAddress(host, port);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final SocketAddress getRemoteAddress(){
+        return remoteAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUniqueKey(){
+        if(remoteAddress != null) {
+            InetAddress inetAddress = remoteAddress.getAddress();
+            return inetAddress.getHostAddress() + ":" + remoteAddress.getPort();
+        }
+        return null;
+    }
+
+    /**
+     * @return The {@link SelectionKey} associated with this session
+     */
+    public SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    /**
+     * Sets the {@link SelectionKey} for this session
+     *
+     * @param key The new {@link SelectionKey}
+     */
+    public void setSelectionKey(SelectionKey key) {
+        this.selectionKey = key;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final boolean isActive() {
+        return this.selectionKey.isValid();
+    }
+}
@@ -78,7 +78,10 @@ public class NioChannelController extends AbstractPollingIoController<NioSession
      */
     @Override
     public NioSession buildSession(String host, Integer port){
-        return buildSession(host, port, getConfig().clone());
+        NioSession session = buildSession(host, port, getConfig());
+        // Not a config of its own, the session shares a snapshot of the controller's one
+        session.shareConfig((NioSocketConfig) getConfig());
+        return session;
     }
 
     /**
@@ -115,9 +118,9 @@ public class NioChannelController extends AbstractPollingIoController<NioSession
      * {@inheritDoc}
      */
     @Override
-    protected SocketChannel newChannel() throws IOException {
+    protected SocketChannel newChannel(NioSession session) throws IOException {
         SocketChannel ch = SocketChannel.open();
-        int receiveBufferSize = getConfig().getReceiveBufferSize();
+        int receiveBufferSize = session.getEffectiveConfig().getReceiveBufferSize();
         if (receiveBufferSize > 65535) {
             ch.socket().setReceiveBufferSize(receiveBufferSize);
         }
@@ -229,10 +232,10 @@ public class NioChannelController extends AbstractPollingIoController<NioSession
         return new ChannelIterator(selector.keys());
     }
 
-    private static class ChannelIterator implements Iterator<SelectableChannel> {
+    static class ChannelIterator implements Iterator<SelectableChannel> {
         private final Iterator<SelectionKey> iterator;
 
-        private ChannelIterator(Collection<SelectionKey> selectedKeys) {
+        ChannelIterator(Collection<SelectionKey> selectedKeys) {
             iterator = selectedKeys.iterator();
         }
 
@@ -0,0 +1,138 @@
+package com.sonf.nio;
+
+import com.sonf.core.session.AbstractIOConfig;
+import com.sonf.core.session.IOConfig;
+
+import java.net.DatagramSocket;
+
+/**
+ * NIO UDP datagram config
+ * Inheriting class of {@link AbstractIOConfig}
+ *
+ * Note that a datagram larger than {@link #getReadBufferSize()} is truncated when read.
+ */
+public class NioDatagramConfig extends AbstractIOConfig {
+    /* The SO_RCVBUF parameter. Set to -1 (ie, will default to OS default) */
+    private int receiveBufferSize = -1;
+
+    /* The SO_SNDBUF parameter. Set to -1 (ie, will default to OS default) */
+    private int sendBufferSize = -1;
+
+    /* The SO_BROADCAST parameter */
+    private boolean broadcast = false;
+
+    /* The SO_REUSEADDR parameter */
+    private boolean reuseAddress = false;
+
+    /* The maximum number of datagrams read per select() wake-up */
+    private int maxReadDatagrams = 16;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAll(IOConfig config) {
+        super.setAll(config);
+        if(config instanceof NioDatagramConfig){
+            NioDatagramConfig imp = (NioDatagramConfig)config;
+            setBroadcast(imp.isBroadcast());
+            setReuseAddress(imp.isReuseAddress());
+            setMaxReadDatagrams(imp.getMaxReadDatagrams());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        modified();
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSendBufferSize(int sendBufferSize) {
+        modified();
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @see DatagramSocket#getBroadcast()
+     *
+     * @return <tt>true</tt> if SO_BROADCAST is enabled.
+     */
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    /**
+     * @see DatagramSocket#setBroadcast(boolean)
+     *
+     * @param broadcast Tells if SO_BROACAST is enabled or not
+     */
+    public void setBroadcast(boolean broadcast) {
+        modified();
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * @see DatagramSocket#getReuseAddress()
+     *
+     * @return <tt>true</tt> if SO_REUSEADDR is enabled.
+     */
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+
+    /**
+     * Takes effect only before the channel is bound
+     * @see DatagramSocket#setReuseAddress(boolean)
+     *
+     * @param reuseAddress Tells if SO_REUSEADDR is enabled or disabled
+     */
+    public void setReuseAddress(boolean reuseAddress) {
+        modified();
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * @return the maximum number of datagrams read from a session per select() wake-up
+     */
+    public int getMaxReadDatagrams() {
+        return maxReadDatagrams;
+    }
+
+    /**
+     * Set the maximum number of datagrams read from a session per select() wake-up.
+     * A larger value reduces the select() calls under load while a smaller one
+     * improves the fairness between sessions.
+     *
+     * @param maxReadDatagrams the batch size
+     */
+    public void setMaxReadDatagrams(int maxReadDatagrams) {
+        modified();
+        if (maxReadDatagrams <= 0) {
+            throw new IllegalArgumentException("maxReadDatagrams: " + maxReadDatagrams + " (expected: 1+)");
+        }
+        this.maxReadDatagrams = maxReadDatagrams;
+    }
+}
@@ -0,0 +1,268 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOProcessor;
+import com.sonf.core.future.IOFuture;
+import com.sonf.core.session.AbstractIOConfig;
+import com.sonf.polling.AbstractPollingIoController;
+import com.yynie.myutils.Logger;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ *  NIO UDP datagram Channel Controller
+ *  Inheriting class of {@link AbstractPollingIoController}.
+ *
+ *  There is no handshake with UDP, so the sessions are handed to the {@link NioDatagramProcessor}
+ *  as soon as their channel is opened (and connected in connected mode).
+ */
+public class NioDatagramController extends AbstractPollingIoController<NioDatagramSession, DatagramChannel> {
+    private Logger log = Logger.get(NioDatagramController.class, Logger.Level.INFO);
+    private volatile Selector selector;
+
+    /** Whether the session channels are connected to their remote address. Default to true */
+    private volatile boolean connectedMode = true;
+
+    /** The local address the session channels are bound to, <tt>null</tt> for an ephemeral port */
+    private volatile SocketAddress localAddress;
+
+    /**
+     * Constructor for {@link NioDatagramController} using default parameters
+     */
+    public NioDatagramController() {
+        this(null);
+    }
+
+    /**
+     * Constructor for {@link NioDatagramController} using provided executor
+     */
+    public NioDatagramController(Executor executor) {
+        this(executor, new NioDatagramConfig());
+    }
+
+    /**
+     * Constructor for {@link NioDatagramController} using provided executor and configuration
+     */
+    public NioDatagramController(Executor executor, NioDatagramConfig config) {
+        super(executor, NioDatagramProcessor.class, config);
+        try {
+            selector = Selector.open();
+
+            setSelectable(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                destroy();
+            } catch (Exception e1) {
+                e1.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return whether the session channels are connected to their remote address
+     */
+    public boolean isConnectedMode() {
+        return connectedMode;
+    }
+
+    /**
+     * Set the mode of the sessions created after.
+     *
+     * @param connectedMode <tt>true</tt> to connect the channels and only exchange datagrams with the
+     *                      remote address, <tt>false</tt> to receive datagrams from any sender.
+     */
+    public void setConnectedMode(boolean connectedMode) {
+        this.connectedMode = connectedMode;
+    }
+
+    /**
+     * @return the local address the session channels are bound to
+     */
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * Set the local address the channels of the sessions created after are bound to.
+     * Usually needed in unconnected mode to receive on a well known port.
+     *
+     * @param localAddress local address, <tt>null</tt> for an ephemeral port
+     */
+    public void setLocalAddress(SocketAddress localAddress) {
+        this.localAddress = localAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (selector != null) {
+            selector.close();
+            selector = null;
+            log.d("destroy: selector closed");
+        }
+        setSelectable(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NioDatagramSession buildSession(String host, Integer port){
+        NioDatagramSession session = buildSession(host, port, getConfig());
+        // Not a config of its own, the session shares a snapshot of the controller's one
+        session.shareConfig((NioDatagramConfig) getConfig());
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected NioDatagramSession buildSession(String host, Integer port, AbstractIOConfig config) {
+        if(isDisposing()){
+            throw new IllegalStateException("Controller is disposing !");
+        }
+        if(port == null){
+            throw new IllegalArgumentException("port");
+        }
+
+        if(DNSCache.isIpV4(host)){
+            return createSession(new InetSocketAddress(host, port), config);
+        }else{
+            return createSession(host, port, config);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected NioDatagramSession newSession(IOProcessor<NioDatagramSession> processor){
+        return new NioDatagramSession(this, processor, connectedMode);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DatagramChannel newChannel(NioDatagramSession session) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        boolean success = false;
+        try {
+            NioDatagramConfig config = session.getEffectiveConfig();
+            DatagramSocket socket = ch.socket();
+            socket.setReuseAddress(config.isReuseAddress());
+            int receiveBufferSize = config.getReceiveBufferSize();
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+
+            ch.configureBlocking(false);
+            success = true;
+        } finally {
+            if (!success) {
+                ch.close();
+            }
+        }
+        return ch;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    protected void closeChannel(DatagramChannel channel) throws IOException {
+        channel.close();
+        log.i("closeChannel  channel closed");
+    }
+
+    /**
+     * Bind the channel if a local address is set, and connect it in connected mode.
+     *
+     * @return always <tt>true</tt>, datagram channels connect immediately
+     */
+    @Override
+    protected boolean connect(DatagramChannel channel, SocketAddress remoteAddress) throws Exception {
+        SocketAddress local = localAddress;
+        if (local != null) {
+            channel.socket().bind(local);
+        }
+        if (connectedMode) {
+            channel.connect(remoteAddress);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean finishConnect(DatagramChannel channel) throws IOException {
+        return true;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    protected IOFuture getFuture(DatagramChannel channel){
+        SelectionKey key = channel.keyFor(selector);
+
+        if ((key == null) || (!key.isValid())) {
+            return null;
+        }
+
+        return (IOFuture) key.attachment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int select(int timeout) throws Exception {
+        return selector.select(timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isSelectorEmpty() {
+        return selector.keys().isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void wakeup(){
+        selector.wakeup();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<SelectableChannel> selectedChannel(){
+        return new NioChannelController.ChannelIterator(selector.selectedKeys());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<SelectableChannel> allChannels() {
+        return new NioChannelController.ChannelIterator(selector.keys());
+    }
+}
@@ -0,0 +1,91 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOController;
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.write.IWritePacket;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * NIO UDP datagram Channel Processor
+ * Inheriting class of {@link AbstractNioProcessor}.
+ * Each read returns one datagram and each write packet is sent as one datagram.
+ */
+public class NioDatagramProcessor extends AbstractNioProcessor<NioDatagramSession> {
+    /**
+     * Constructor
+     *
+     * @param executor The executor to use.
+     *                 It should be the same one with {@link IOController}
+     */
+    public NioDatagramProcessor(Executor executor) {
+        super(executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isMessageOriented() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getMaxReadMessages(NioDatagramSession session) {
+        return session.getEffectiveConfig().getMaxReadDatagrams();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isDisconnected(NioDatagramSession session) {
+        DatagramChannel channel = session.getChannel();
+        return session.isConnectedMode() && (channel != null) && !channel.isConnected();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int read(NioDatagramSession session, IoBuffer buf) throws Exception {
+        DatagramChannel channel = session.getChannel();
+        if (session.isConnectedMode()) {
+            int ret = channel.read(buf.buf());
+            if (ret > 0) {
+                session.setLastSenderAddress(session.getRemoteAddress());
+            }
+            return ret;
+        }
+
+        SocketAddress sender = channel.receive(buf.buf());
+        if (sender == null) {
+            return 0;
+        }
+        session.setLastSenderAddress(sender);
+        return buf.position();
+    }
+
+    /**
+     * The whole buffer is sent as one datagram, <code>length</code> is ignored.
+     * In unconnected mode it goes to the destination of the packet, or to the remote address.
+     *
+     * @return the size of the datagram, or 0 if there was no room in the socket send buffer
+     */
+    @Override
+    protected int write(NioDatagramSession session, IoBuffer buf, int length) throws IOException {
+        DatagramChannel channel = session.getChannel();
+        if (session.isConnectedMode()) {
+            return channel.write(buf.buf());
+        }
+        IWritePacket packet = session.getCurrentWritePacket();
+        SocketAddress destination = (packet != null) ? packet.getDestination() : null;
+        return channel.send(buf.buf(), (destination != null) ? destination : session.getRemoteAddress());
+    }
+}
@@ -0,0 +1,224 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOController;
+import com.sonf.core.IOProcessor;
+import com.sonf.core.RuntimeIoException;
+import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.write.WritePriority;
+
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * NIO UDP datagram Channel session
+ * Inheriting the class of {@link AbstractNioSession}
+ *
+ * In connected mode the channel is connected to the remote address and only exchanges
+ * datagrams with it. In unconnected mode datagrams from any sender are received, see
+ * {@link #getLastSenderAddress()}, and written datagrams are sent to the remote address
+ * unless written with {@link #write(Object, SocketAddress)}.
+ */
+public class NioDatagramSession extends AbstractNioSession<DatagramChannel, NioDatagramConfig> {
+    private final boolean connectedMode;
+
+    /** The sender of the datagram being received, only valid on the processor thread */
+    private SocketAddress lastSenderAddress;
+
+    /**
+     * Constructor of a NIO UDP datagram Channel session
+     *
+     * @param controller controller provided service for this session
+     * @param processor processor handling the I/O operations of this session
+     * @param connectedMode whether the channel is connected to the remote address
+     */
+    public NioDatagramSession(IOController controller, IOProcessor<NioDatagramSession> processor, boolean connectedMode) {
+        super(controller, processor);
+        this.connectedMode = connectedMode;
+    }
+
+    /**
+     * @return whether the channel is connected to the remote address
+     */
+    public boolean isConnectedMode() {
+        return connectedMode;
+    }
+
+    /**
+     * Only valid on the processor thread, while the datagram goes through the filter chain.
+     * With a handler executor, see {@link com.sonf.core.AbstractIOController#setHandlerExecutor},
+     * the handler runs later on another thread: read it from a filter instead.
+     *
+     * @return the sender of the datagram being received, to reply to it with
+     *          {@link #write(Object, SocketAddress)} in unconnected mode
+     */
+    public SocketAddress getLastSenderAddress() {
+        return lastSenderAddress;
+    }
+
+    /**
+     * Write a message as one datagram sent to the given address, in unconnected mode
+     *
+     * @param message the message to write
+     * @param destination the address to send the datagram to
+     * @return the WriteFuture of the message
+     * @throws IllegalStateException in connected mode, where the datagrams only go to the remote address
+     */
+    public IWriteFuture write(Object message, SocketAddress destination) {
+        if (destination == null) {
+            throw new IllegalArgumentException("destination");
+        }
+        if (connectedMode) {
+            throw new IllegalStateException("connected mode, the datagrams only go to the remote address");
+        }
+        return write(message, WritePriority.NORMAL, destination);
+    }
+
+    /**
+     * Set the sender of the datagram being received
+     *
+     * @param lastSenderAddress sender address
+     */
+    void setLastSenderAddress(SocketAddress lastSenderAddress) {
+        this.lastSenderAddress = lastSenderAddress;
+    }
+
+    /**
+     * Datagram sessions connect immediately, there is no deadline.
+     */
+    @Override
+    public void setConnectDeadLine() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isConnectTimeout() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The socket options are applied, a shared config stays shared until {@link #getConfig()}.
+     */
+    @Override
+    protected void applySessionConfig() {
+        NioDatagramConfig config = getEffectiveConfig();
+        applySendBufferSize(config.getSendBufferSize());
+        applyReceiveBufferSize(config.getReceiveBufferSize());
+        applyBroadcast(config.isBroadcast());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected NioDatagramConfig copySessionConfig(NioDatagramConfig shared) {
+        NioDatagramSessionConfigImpl config = new NioDatagramSessionConfigImpl();
+        config.setAll(shared);
+        config.attached = true;
+        return config;
+    }
+
+    private void applySendBufferSize(int size) {
+        if(size > 0) {
+            try {
+                getSocket().setSendBufferSize(size);
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
+        }
+    }
+
+    private void applyReceiveBufferSize(int size) {
+        if(size > 0) {
+            try {
+                getSocket().setReceiveBufferSize(size);
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
+        }
+    }
+
+    private void applyBroadcast(boolean broadcast) {
+        try {
+            getSocket().setBroadcast(broadcast);
+        } catch (SocketException e) {
+            throw new RuntimeIoException(e);
+        }
+    }
+
+    private DatagramSocket getSocket() {
+        return getChannel().socket();
+    }
+
+    /**
+     * A private class create as a copy of the controller's configuration the first time
+     * the session config is asked for.
+     * That allows the session to have its own configuration setting
+     */
+    private class NioDatagramSessionConfigImpl extends NioDatagramConfig {
+        /** Set once copied, the changes are then applied to the socket */
+        private boolean attached;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getSendBufferSize() {
+            try {
+                return getSocket().getSendBufferSize();
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setSendBufferSize(int size) {
+            super.setSendBufferSize(size);
+            if (attached) {
+                applySendBufferSize(size);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getReceiveBufferSize() {
+            try {
+                return getSocket().getReceiveBufferSize();
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setReceiveBufferSize(int size) {
+            super.setReceiveBufferSize(size);
+            if (attached) {
+                applyReceiveBufferSize(size);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setBroadcast(boolean broadcast) {
+            super.setBroadcast(broadcast);
+            if (attached) {
+                applyBroadcast(broadcast);
+            }
+        }
+    }
+}
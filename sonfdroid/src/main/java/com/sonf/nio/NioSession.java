@@ -7,40 +7,20 @@ import android.os.SystemClock;
 import com.sonf.core.IOController;
 import com.sonf.core.IOProcessor;
 import com.sonf.core.RuntimeIoException;
-import com.sonf.core.future.ICloseFuture;
-import com.sonf.core.future.IConnectFuture;
-import com.sonf.core.future.IWriteFuture;
-import com.sonf.core.session.AbstractIOSession;
-import com.sonf.future.CloseFuture;
-import com.sonf.future.ConnectFuture;
-import com.sonf.future.WriteFuture;
 import com.yynie.myutils.Logger;
 
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 /**
  * NIO TCP socket Channel session
- * Inheriting the class of {@link AbstractIOSession}
+ * Inheriting the class of {@link AbstractNioSession}
  */
-public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig> {
-    private Logger log = Logger.get(NioSession.class, Logger.Level.INFO);
-    private InetSocketAddress remoteAddress;
-    private String host;
-    private int port;
-    private final long UN_SET = 0L;
+public class NioSession extends AbstractNioSession<SocketChannel, NioSocketConfig> {
+    private final static Logger log = Logger.get(NioSession.class, Logger.Level.INFO);
+    private static final long UN_SET = 0L;
     private long connectDeadLine = UN_SET;
-    private SelectionKey selectionKey;
-    /**
-     * A future that will be set 'closed' when the connection is closed.
-     */
-    private final CloseFuture closeFuture = new CloseFuture(this);
 
     /**
      * Constructor of a NIO TCP socket Channel session
@@ -54,113 +34,70 @@ public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig
 
     /**
      * {@inheritDoc}
-     */
-    @Override
-    protected IConnectFuture getNewConnectFuture(){
-        return new ConnectFuture(this);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public ICloseFuture getCloseFuture(){
-        return closeFuture;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    protected IWriteFuture getNewWriteFuture(){
-        return new WriteFuture(this);
-    }
-
-    /**
-     * {@inheritDoc}
+     *
+     * The socket options are applied, a shared config stays shared until {@link #getConfig()}.
      */
     @Override
     protected void applySessionConfig() {
-        NioSocketConfig config = new NioSessionConfigImpl();
-        config.setAll(getConfig());
-        setConfig(config);
+        NioSocketConfig config = getEffectiveConfig();
+        applySoLinger(config.getSoLinger());
+        applySendBufferSize(config.getSendBufferSize());
+        applyReceiveBufferSize(config.getReceiveBufferSize());
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setRemoteAddress(SocketAddress remoteAddress) {
-        if(!isNew()){
-            throw new IllegalStateException("Can change remote address of a session in use");
-        }
-        if(remoteAddress instanceof InetSocketAddress) {
-            this.remoteAddress = (InetSocketAddress) remoteAddress;
-        }else{
-            throw new RuntimeException("Unsupported remoteAddress class!");
+    protected NioSocketConfig copySessionConfig(NioSocketConfig shared) {
+        NioSessionConfigImpl config = new NioSessionConfigImpl();
+        config.setAll(shared);
+        config.attached = true;
+        return config;
+    }
+
+    private void applySoLinger(int linger) {
+        try {
+            if (linger < 0) {
+                getSocket().setSoLinger(false, 0);
+            } else {
+                getSocket().setSoLinger(true, linger);
+            }
+        } catch (SocketException e) {
+            throw new RuntimeIoException(e);
         }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void setRemoteAddress(String remoteHost, int remotePort) {
-        if(!isNew()){
-            throw new IllegalStateException("Can change remote address of a session in use");
+    private void applySendBufferSize(int size) {
+        if(size > 0) {
+            try {
+                getSocket().setSendBufferSize(size);
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
         }
-        this.remoteAddress = null;
-        this.host = remoteHost;
-        this.port = remotePort;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void parseRemoteAddress() throws UnknownHostException {
-        if(remoteAddress != null) return;
-
-        if(!DNSCache.isIpV4(host)) {
-            log.i("parseRemoteAddress:" + host);
-            InetAddress inetAddress = InetAddress.getByName(host);
-            String ip = inetAddress.getHostAddress();
-            remoteAddress = new InetSocketAddress(ip, port);
-        }else{
-            remoteAddress = new InetSocketAddress(host, port);
+    private void applyReceiveBufferSize(int size) {
+        if(size > 0) {
+            try {
+                getSocket().setReceiveBufferSize(size);
+            } catch (SocketException e) {
+                throw new RuntimeIoException(e);
+            }
         }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public final SocketAddress getRemoteAddress(){
-        return remoteAddress;
-    }
-
     private Socket getSocket() {
         return getChannel().socket();
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String getUniqueKey(){
-        if(remoteAddress != null) {
-            InetAddress inetAddress = remoteAddress.getAddress();
-            return inetAddress.getHostAddress() + ":" + remoteAddress.getPort();
-        }
-        return null;
-    }
-
     /**
      * {@inheritDoc}
      */
     @Override
     public void setConnectDeadLine(){
-        connectDeadLine = SystemClock.elapsedRealtime() + getConfig().getConnectTimeoutMs();
+        connectDeadLine = SystemClock.elapsedRealtime() + getEffectiveConfig().getConnectTimeoutMs();
     }
 
     /**
@@ -175,35 +112,14 @@ public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig
     }
 
     /**
-     * @return The {@link SelectionKey} associated with this session
-     */
-    public SelectionKey getSelectionKey() {
-        return selectionKey;
-    }
-
-    /**
-     * Sets the {@link SelectionKey} for this session
-     *
-     * @param key The new {@link SelectionKey}
-     */
-    public void setSelectionKey(SelectionKey key) {
-        this.selectionKey = key;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public final boolean isActive() {
-        return this.selectionKey.isValid();
-    }
-
-    /**
-     * A private class create as a copy of the controller's configuration when the session
-     * is prepared to add into polling
+     * A private class create as a copy of the controller's configuration the first time
+     * the session config is asked for.
      * That allows the session to have its own configuration setting
      */
     private class NioSessionConfigImpl extends NioSocketConfig{
+        /** Set once copied, the changes are then applied to the socket */
+        private boolean attached;
+
         /**
          * {@inheritDoc}
          */
@@ -222,16 +138,10 @@ public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig
         @Override
         public void setSoLinger(int linger) {
             super.setSoLinger(linger);
-            try {
-                if (linger < 0) {
-                    getSocket().setSoLinger(false, 0);
-                } else {
-                    getSocket().setSoLinger(true, linger);
-                }
-            } catch (SocketException e) {
-                throw new RuntimeIoException(e);
+            if (attached) {
+                applySoLinger(linger);
+                log.d("setSoLinger: = {}", getSoLinger());
             }
-            log.d("setSoLinger: = " + getSoLinger());
         }
 
         /**
@@ -252,13 +162,8 @@ public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig
         @Override
         public void setSendBufferSize(int size) {
             super.setSendBufferSize(size);
-//            log.i("setSendBufferSize: old = " + getSendBufferSize());
-            if(size > 0) {
-                try {
-                    getSocket().setSendBufferSize(size);
-                } catch (SocketException e) {
-                    throw new RuntimeIoException(e);
-                }
+            if (attached) {
+                applySendBufferSize(size);
             }
         }
 
@@ -280,13 +185,8 @@ public class NioSession extends AbstractIOSession<SocketChannel, NioSocketConfig
         @Override
         public void setReceiveBufferSize(int size) {
             super.setReceiveBufferSize(size);
-//            log.i("setReceiveBufferSize: old = " + getReceiveBufferSize());
-            if(size > 0) {
-                try {
-                    getSocket().setReceiveBufferSize(size);
-                } catch (SocketException e) {
-                    throw new RuntimeIoException(e);
-                }
+            if (attached) {
+                applyReceiveBufferSize(size);
             }
         }
     }
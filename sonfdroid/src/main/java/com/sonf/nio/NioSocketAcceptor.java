@@ -0,0 +1,207 @@
+package com.sonf.nio;
+
+import com.sonf.core.IOProcessor;
+import com.sonf.polling.AbstractPollingIoAcceptor;
+import com.yynie.myutils.Logger;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ *  NIO TCP socket Acceptor
+ *  Inheriting class of {@link AbstractPollingIoAcceptor}.
+ *  The accepted sessions are {@link NioSession}s handled by {@link NioProcessor}s,
+ *  exactly like the ones connected by a {@link NioChannelController}.
+ */
+public class NioSocketAcceptor extends AbstractPollingIoAcceptor<NioSession, ServerSocketChannel> {
+    private Logger log = Logger.get(NioSocketAcceptor.class, Logger.Level.INFO);
+    private volatile Selector selector;
+
+    /**
+     * Constructor for {@link NioSocketAcceptor} using default parameters and a single processor
+     */
+    public NioSocketAcceptor() {
+        this(null, 1);
+    }
+
+    /**
+     * Constructor for {@link NioSocketAcceptor} using provided executor and processor count
+     */
+    public NioSocketAcceptor(Executor executor, int processorCount) {
+        this(executor, processorCount, new NioSocketConfig());
+    }
+
+    /**
+     * Constructor for {@link NioSocketAcceptor} using provided executor, processor count and configuration
+     */
+    public NioSocketAcceptor(Executor executor, int processorCount, NioSocketConfig config) {
+        super(executor, NioProcessor.class, config, processorCount);
+        try {
+            selector = Selector.open();
+
+            setSelectable(true);
+        } catch (IOException e) {
+            log.e("NioSocketAcceptor: failed to open the selector, {}", e);
+            try {
+                destroy();
+            } catch (Exception e1) {
+                log.e("NioSocketAcceptor: destroy failed, {}", e1);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void destroy() throws Exception {
+        if (selector != null) {
+            selector.close();
+            selector = null;
+            log.d("destroy: selector closed");
+        }
+        setSelectable(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ServerSocketChannel open(SocketAddress localAddress) throws Exception {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        boolean success = false;
+        try {
+            channel.configureBlocking(false);
+            ServerSocket socket = channel.socket();
+            socket.setReuseAddress(isReuseAddress());
+
+            // SO_RCVBUF larger than 64K must be set before bind() to be applied to accepted sockets
+            int receiveBufferSize = getConfig().getReceiveBufferSize();
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+
+            socket.bind(localAddress, getBacklog());
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+            success = true;
+            log.i("open: bound to {}", socket.getLocalSocketAddress());
+        } finally {
+            if (!success) {
+                close(channel);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected SocketAddress localAddress(ServerSocketChannel handle) throws Exception {
+        return handle.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected NioSession accept(IOProcessor<NioSession> processor, ServerSocketChannel handle) throws Exception {
+        SelectionKey key = handle.keyFor(selector);
+        if ((key == null) || !key.isValid() || !key.isAcceptable()) {
+            return null;
+        }
+
+        SocketChannel ch = handle.accept();
+        if (ch == null) {
+            return null;
+        }
+
+        NioSession session = new NioSession(this, processor);
+        session.setChannel(ch);
+        session.setRemoteAddress(ch.socket().getRemoteSocketAddress());
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close(ServerSocketChannel handle) throws Exception {
+        SelectionKey key = handle.keyFor(selector);
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        handle.close();
+        log.i("close: listening channel closed");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void closeSessionChannel(NioSession session) throws Exception {
+        SocketChannel ch = session.getChannel();
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int select(int timeout) throws Exception {
+        return selector.select(timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<ServerSocketChannel> selectedHandles() {
+        return new ServerSocketChannelIterator(selector.selectedKeys());
+    }
+
+    private static class ServerSocketChannelIterator implements Iterator<ServerSocketChannel> {
+        private final Iterator<SelectionKey> iterator;
+
+        private ServerSocketChannelIterator(Set<SelectionKey> selectedKeys) {
+            iterator = selectedKeys.iterator();
+        }
+
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        public ServerSocketChannel next() {
+            SelectionKey key = iterator.next();
+
+            if (key.isValid() && key.isAcceptable()) {
+                return (ServerSocketChannel) key.channel();
+            }
+            return null;
+        }
+
+        public void remove() {
+            iterator.remove();
+        }
+    }
+}
@@ -60,6 +60,7 @@ public class NioSocketConfig extends AbstractSocketConfig {
      */
     @Override
     public void setReceiveBufferSize(int receiveBufferSize) {
+        modified();
         this.receiveBufferSize = receiveBufferSize;
     }
 
@@ -88,6 +89,7 @@ public class NioSocketConfig extends AbstractSocketConfig {
      */
     @Override
     public void setSoLinger(int soLinger) {
+        modified();
         this.soLinger = soLinger;
     }
 
@@ -104,6 +106,7 @@ public class NioSocketConfig extends AbstractSocketConfig {
      */
     @Override
     public void setSendBufferSize(int sendBufferSize) {
+        modified();
         this.sendBufferSize = sendBufferSize;
     }
 
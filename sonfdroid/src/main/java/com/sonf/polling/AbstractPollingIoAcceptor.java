@@ -0,0 +1,637 @@
+package com.sonf.polling;
+
+import com.sonf.core.AbstractIOController;
+import com.sonf.core.IOProcessor;
+import com.sonf.core.IoStatistics;
+import com.sonf.core.RuntimeIoException;
+import com.sonf.core.future.DefaultIOFuture;
+import com.sonf.core.future.IOFuture;
+import com.sonf.core.session.AbstractIOConfig;
+import com.sonf.core.session.AbstractIOSession;
+import com.sonf.core.session.IOSession;
+import com.yynie.myutils.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Polling Acceptor
+ * The server side counterpart of {@link AbstractPollingIoController}: it binds listening handles,
+ * accepts incoming connections and hands the new sessions to its processors, so the same
+ * filter chain and {@link com.sonf.core.session.IOHandler} can be used on both sides.
+ */
+public abstract class AbstractPollingIoAcceptor<S extends AbstractIOSession, H> extends AbstractIOController<S> {
+    private Logger log = Logger.get(AbstractPollingIoAcceptor.class, Logger.Level.INFO);
+
+    private final AbstractIOConfig config;
+
+    /** The listen backlog of the bound handles */
+    private int backlog = 50;
+
+    /** SO_REUSEADDR of the bound handles */
+    private boolean reuseAddress = true;
+
+    /** The maximum number of connections accepted on one handle per select() wake-up */
+    private int acceptBatchSize = 16;
+
+    /** A flag set when the acceptor has been initialized successfully */
+    private volatile boolean selectable;
+
+    private final Semaphore lock = new Semaphore(1);
+
+    /** A reference to hold the thread accepting the incoming connections */
+    private AtomicReference<AcceptorBee> beeRef = new AtomicReference<AcceptorBee>();
+
+    /** The processors the accepted sessions are spread over */
+    private final List<IOProcessor<S>> processors = new ArrayList<IOProcessor<S>>();
+    private final AtomicInteger processorIndex = new AtomicInteger();
+
+    private final Queue<BindFuture> registerQueue = new ConcurrentLinkedQueue<BindFuture>();
+    private final Queue<BindFuture> cancelQueue = new ConcurrentLinkedQueue<BindFuture>();
+
+    /** The bound handles by local address */
+    private final Map<SocketAddress, H> boundHandles = Collections.synchronizedMap(new HashMap<SocketAddress, H>());
+
+    /**
+     * Constructor
+     * @param executor can provided by outside code.
+     *                 Pass <code>null</code> if you want this acceptor to create a Default one.
+     * @param processorType used to construct the processors which will be responsible for handling
+     *                     read/write I/O events of the accepted sessions.
+     * @param config the base configuration used for creation of {@link IOSession}'s configuration
+     * @param processorCount the number of processors the accepted sessions are spread over
+     */
+    public AbstractPollingIoAcceptor(Executor executor, Class<? extends IOProcessor<S>> processorType,
+                                     AbstractIOConfig config, int processorCount) {
+        super(executor);
+        if (processorType == null) {
+            throw new IllegalArgumentException("processorType");
+        }
+        if (processorCount <= 0) {
+            throw new IllegalArgumentException("processorCount: " + processorCount + " (expected: 1+)");
+        }
+
+        this.config = config;
+        try {
+            Constructor<? extends IOProcessor<S>> processorConstructor = processorType.getConstructor(Executor.class);
+            for (int i = 0; i < processorCount; i++) {
+                processors.add(processorConstructor.newInstance(getExecutor()));
+            }
+        } catch (Exception e) {
+            for (IOProcessor<S> processor : processors) {
+                processor.dispose();
+            }
+            throw new RuntimeException("Can NOT create IOProcessor:", e);
+        }
+    }
+
+    /***
+     * {@inheritDoc}
+     */
+    @Override
+    protected Executor getDefaultThreadPollExecutor(){
+        Executor executor = Executors.newCachedThreadPool();
+        ((ThreadPoolExecutor)executor).setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void dispose0() throws Exception {
+        Set<SocketAddress> addresses = getLocalAddresses();
+        if (!addresses.isEmpty()) {
+            cancelQueue.add(new BindFuture(addresses.toArray(new SocketAddress[addresses.size()])));
+        }
+        startAcceptorBee();
+    }
+
+    /***
+     * @return the base configuration instance of this acceptor.
+     *          Any modification to this instance will be applied to the sessions accepted after.
+     */
+    public AbstractIOConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Set selectable.
+     *
+     * @param selectable
+     *          Set to true when the acceptor has been initialized
+     *          Set to false when the acceptor will be destroyed.
+     */
+    public void setSelectable(boolean selectable) {
+        log.d("setSelectable {}", selectable);
+        this.selectable = selectable;
+    }
+
+    /**
+     * @return the listen backlog of the handles bound after
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Set the listen backlog. It takes effect on the handles bound after.
+     *
+     * @param backlog the maximum length of the queue of incoming connections
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * @return whether SO_REUSEADDR is set on the handles bound after
+     */
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+
+    /**
+     * Set SO_REUSEADDR. It takes effect on the handles bound after.
+     *
+     * @param reuseAddress <tt>true</tt> to enable, <tt>true</tt> as default
+     */
+    public void setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * @return the maximum number of connections accepted on one handle per select() wake-up
+     */
+    public int getAcceptBatchSize() {
+        return acceptBatchSize;
+    }
+
+    /**
+     * Set the maximum number of connections accepted on one handle per select() wake-up
+     *
+     * @param acceptBatchSize the batch size
+     */
+    public void setAcceptBatchSize(int acceptBatchSize) {
+        if (acceptBatchSize <= 0) {
+            throw new IllegalArgumentException("acceptBatchSize: " + acceptBatchSize + " (expected: 1+)");
+        }
+        this.acceptBatchSize = acceptBatchSize;
+    }
+
+    /**
+     * @return the local addresses which are currently bound
+     */
+    public Set<SocketAddress> getLocalAddresses() {
+        synchronized (boundHandles) {
+            return new HashSet<SocketAddress>(boundHandles.keySet());
+        }
+    }
+
+    /**
+     * Bind to the specified local addresses and start to accept incoming connections.
+     * This method blocks until the addresses are bound.
+     *
+     * @param localAddresses the local addresses to bind to
+     * @throws IOException if any of the addresses failed to bind,
+     *          in which case none of them is bound
+     */
+    public void bind(SocketAddress... localAddresses) throws IOException {
+        if (localAddresses == null || localAddresses.length == 0) {
+            throw new IllegalArgumentException("localAddresses");
+        }
+        if (isDisposing()) {
+            throw new IllegalStateException("bind failed when Acceptor is disposing !");
+        }
+
+        BindFuture future = new BindFuture(localAddresses);
+        registerQueue.add(future);
+        startAcceptorBee();
+        future.awaitUninterruptibly();
+
+        Throwable cause = future.getException();
+        if (cause != null) {
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to bind", cause);
+        }
+    }
+
+    /**
+     * Unbind from the specified local addresses. The sessions already accepted are not closed.
+     *
+     * @param localAddresses the local addresses to unbind
+     * @throws RuntimeIoException if the acceptor is not selectable any more
+     */
+    public void unbind(SocketAddress... localAddresses) {
+        if (localAddresses == null || localAddresses.length == 0) {
+            return;
+        }
+
+        BindFuture future = new BindFuture(localAddresses);
+        cancelQueue.add(future);
+        startAcceptorBee();
+        future.awaitUninterruptibly();
+
+        Throwable cause = future.getException();
+        if (cause != null) {
+            throw new RuntimeIoException("Failed to unbind", cause);
+        }
+    }
+
+    /**
+     * Unbind from all the bound local addresses
+     */
+    public void unbind() {
+        Set<SocketAddress> addresses = getLocalAddresses();
+        unbind(addresses.toArray(new SocketAddress[addresses.size()]));
+    }
+
+    /**
+     * Accepting only, this acceptor never connects anywhere.
+     */
+    @Override
+    public boolean connect(IOFuture future) {
+        future.setException(new UnsupportedOperationException("An acceptor can't connect"));
+        return false;
+    }
+
+    /**
+     * Accepting only, this acceptor never connects anywhere.
+     */
+    @Override
+    public void cancelConnect(IOFuture future) {
+    }
+
+    /**
+     * Accepting only, always 0
+     */
+    @Override
+    public long getConnectCheckIntervalMs() {
+        return 0;
+    }
+
+    /**
+     * Accepting only, ignored
+     */
+    @Override
+    public void setConnectCheckIntervalMs(long connectCheckIntervalMs) {
+    }
+
+    /**
+     * Keep the processor threads running when they have no session,
+     * instead of leaving the executor and starting again on the next accepted session.
+     *
+     * @param persistent <tt>true</tt> for long-lived event loops
+     */
+    public void setPersistent(boolean persistent) {
+        for (IOProcessor<S> processor : processors) {
+            if (processor instanceof AbstractPollingIoProcessor) {
+                ((AbstractPollingIoProcessor) processor).setPersistent(persistent);
+            }
+        }
+    }
+
+    /**
+     * Set how the processors' event loops wait for the I/O events
+     *
+     * @param waitStrategy one of the {@link WaitStrategies}, or a custom one
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        for (IOProcessor<S> processor : processors) {
+            if (processor instanceof AbstractPollingIoProcessor) {
+                ((AbstractPollingIoProcessor) processor).setWaitStrategy(waitStrategy);
+            }
+        }
+    }
+
+    /**
+     * @return the processors the accepted sessions are spread over
+     */
+    public List<IOProcessor<S>> getProcessors() {
+        return Collections.unmodifiableList(processors);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IoStatistics getStatistics() {
+        IoStatistics snapshot = new IoStatistics();
+        for (IOProcessor<S> processor : processors) {
+            snapshot.add(processor.getStatistics());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the processor the next accepted session goes to, see {@link #advanceProcessor()}
+     */
+    private IOProcessor<S> nextProcessor() {
+        int index = processorIndex.get() & Integer.MAX_VALUE;
+        return processors.get(index % processors.size());
+    }
+
+    /**
+     * Move on to the next processor, once a session went to the current one.
+     * Only the acceptor thread picks the processors.
+     */
+    private void advanceProcessor() {
+        processorIndex.lazySet(processorIndex.get() + 1);
+    }
+
+    private void startAcceptorBee() {
+        if (!selectable) {
+            log.e("Acceptor can NOT be started, selectable = {}", selectable);
+            failPendingFutures();
+            return;
+        }
+        AcceptorBee bee = beeRef.get();
+        if (bee == null) {
+            lock.acquireUninterruptibly();
+            bee = new AcceptorBee();
+
+            if (beeRef.compareAndSet(null, bee)) {
+                executeRunnable(bee, null);
+            } else {
+                lock.release();
+            }
+        }
+        wakeup();
+    }
+
+    /**
+     * Fail the bind and unbind requests no bee will handle, so their callers don't wait forever
+     */
+    private void failPendingFutures() {
+        IOException cause = new IOException("Acceptor is not selectable");
+        BindFuture future;
+        while ((future = registerQueue.poll()) != null) {
+            future.setException(cause);
+        }
+        while ((future = cancelQueue.poll()) != null) {
+            future.setException(cause);
+        }
+    }
+
+    class AcceptorBee implements Runnable {
+        @Override
+        public void run() {
+            assert (beeRef.get() == this);
+
+            lock.release();
+            int nHandles = 0;
+            while (selectable) {
+                try {
+                    nHandles += registerHandles();
+                    if (nHandles == 0 && registerQueue.isEmpty() && cancelQueue.isEmpty()) {
+                        break;
+                    }
+
+                    int selected = select(1000);
+                    if (selected > 0) {
+                        processHandles(selectedHandles());
+                    }
+
+                    nHandles -= unregisterHandles();
+                } catch (Exception e) {
+                    log.e("run: acceptor loop failed, {}", e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e1) {
+                        e1.fillInStackTrace();
+                    }
+                }
+            }
+
+            beeRef.set(null);
+            if (selectable && isDisposing()) {
+                selectable = false;
+                try {
+                    for (IOProcessor<S> processor : processors) {
+                        processor.dispose();
+                    }
+                } finally {
+                    try {
+                        synchronized (disposalLock) {
+                            destroy();
+                        }
+                    } catch (Exception e) {
+                        log.e("run: destroy failed, {}", e);
+                    } finally {
+                        disposalFuture.setValue(true);
+                    }
+                }
+            }
+            if (!selectable) {
+                failPendingFutures();
+            } else if (!registerQueue.isEmpty() || !cancelQueue.isEmpty()) {
+                // Queued while this bee was leaving
+                startAcceptorBee();
+            }
+        }
+
+        private int registerHandles() {
+            int count = 0;
+            for (;;) {
+                BindFuture future = registerQueue.poll();
+                if (future == null) {
+                    break;
+                }
+
+                Map<SocketAddress, H> newHandles = new HashMap<SocketAddress, H>();
+                try {
+                    for (SocketAddress address : future.addresses) {
+                        H handle = open(address);
+                        newHandles.put(localAddress(handle), handle);
+                    }
+                    boundHandles.putAll(newHandles);
+                    count += newHandles.size();
+                    future.setValue(true);
+                } catch (Exception e) {
+                    // Roll back the handles of this request
+                    for (H handle : newHandles.values()) {
+                        try {
+                            close(handle);
+                        } catch (Exception e1) {
+                            log.e("registerHandles: failed to close a handle, {}", e1);
+                        }
+                    }
+                    future.setException(e);
+                }
+            }
+            return count;
+        }
+
+        private int unregisterHandles() {
+            int count = 0;
+            for (;;) {
+                BindFuture future = cancelQueue.poll();
+                if (future == null) {
+                    break;
+                }
+
+                for (SocketAddress address : future.addresses) {
+                    H handle = boundHandles.remove(address);
+                    if (handle == null) {
+                        continue;
+                    }
+                    try {
+                        close(handle);
+                    } catch (Exception e) {
+                        log.e("unregisterHandles: failed to close {}, {}", address, e);
+                    } finally {
+                        count++;
+                    }
+                }
+                future.setValue(true);
+            }
+            return count;
+        }
+
+        private void processHandles(Iterator<H> handles) {
+            final int batch = acceptBatchSize;
+            while (handles.hasNext()) {
+                H handle = handles.next();
+                handles.remove();
+                if (handle == null) {
+                    continue;
+                }
+
+                // Drain the backlog a few connections at a time
+                for (int i = 0; i < batch; i++) {
+                    S session;
+                    try {
+                        session = accept(nextProcessor(), handle);
+                    } catch (Exception e) {
+                        log.e("processHandles: accept failed, {}", e);
+                        break;
+                    }
+                    if (session == null) {
+                        // Nothing left in the backlog, the processor stays the next one
+                        break;
+                    }
+                    advanceProcessor();
+                    try {
+                        session.shareConfig(config);
+                        session.prepare();
+                        session.getProcessor().add(session);
+                    } catch (Exception e) {
+                        log.e("processHandles: failed to add session {}, {}", session.getId(), e);
+                        session.setStateClosed();
+                        try {
+                            closeSessionChannel(session);
+                        } catch (Exception e1) {
+                            log.e("processHandles: failed to close session {}, {}", session.getId(), e1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class BindFuture extends DefaultIOFuture {
+        private final Collection<SocketAddress> addresses;
+
+        private BindFuture(SocketAddress[] addresses) {
+            super(null);
+            List<SocketAddress> list = new ArrayList<SocketAddress>();
+            for (SocketAddress address : addresses) {
+                if (address != null) {
+                    list.add(address);
+                }
+            }
+            this.addresses = list;
+        }
+    }
+
+    /**
+     * Open a listening handle bound to the given local address and register it for accepting.
+     * {@link #getBacklog()} and {@link #isReuseAddress()} are applied.
+     *
+     * @param localAddress the local address to bind to
+     * @return the bound handle
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract H open(SocketAddress localAddress) throws Exception;
+
+    /**
+     * @param handle a bound handle
+     * @return the local address the handle is actually bound to
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract SocketAddress localAddress(H handle) throws Exception;
+
+    /**
+     * Accept one pending connection of the given handle.
+     *
+     * @param processor the processor the new session will be added to
+     * @param handle the listening handle
+     * @return a new session, or <tt>null</tt> if there is no more pending connection
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract S accept(IOProcessor<S> processor, H handle) throws Exception;
+
+    /**
+     * Close a listening handle
+     *
+     * @param handle the listening handle
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract void close(H handle) throws Exception;
+
+    /**
+     * Close the channel of an accepted session which failed to be added to its processor
+     *
+     * @param session the accepted session
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract void closeSessionChannel(S session) throws Exception;
+
+    /**
+     * Check for acceptable handles
+     *
+     * @param timeout The timeout for the select
+     * @return The number of acceptable handles
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract int select(int timeout) throws Exception;
+
+    /**
+     * Interrupt the {@link #select(int)} method.
+     */
+    protected abstract void wakeup();
+
+    /**
+     * {@link Iterator} for the set of handles with pending connections
+     * during the last {@link #select(int)} call.
+     *
+     * @return the list of acceptable handles
+     */
+    protected abstract Iterator<H> selectedHandles();
+
+    /**
+     * Destroy the acceptor, will be called by {@link #dispose()}
+     *
+     * @throws Exception any exception thrown by the underlying systems calls
+     */
+    protected abstract void destroy() throws Exception;
+}
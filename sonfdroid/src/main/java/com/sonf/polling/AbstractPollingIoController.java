@@ -3,6 +3,7 @@ package com.sonf.polling;
 
 import com.sonf.core.AbstractIOController;
 import com.sonf.core.IOProcessor;
+import com.sonf.core.IoStatistics;
 import com.sonf.core.filter.DefaultFilterChain;
 import com.sonf.core.future.IOFuture;
 import com.sonf.core.session.AbstractIOConfig;
@@ -11,6 +12,7 @@ import com.sonf.core.session.IOSession;
 import com.sonf.future.ConnectFuture;
 import com.yynie.myutils.Logger;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.ConnectException;
 import java.net.SocketAddress;
@@ -46,6 +48,9 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
     /** The only one processor supported on android devices;*/
     private IOProcessor<S> processor;
 
+    /** Keep the connecting thread when there is nothing to connect, until disposed */
+    private volatile boolean persistent;
+
     private final Queue<IOFuture> connectQueue = new ConcurrentLinkedQueue<IOFuture>();
     private final Queue<IOFuture> cancelConnectQueue = new ConcurrentLinkedQueue<IOFuture>();
 
@@ -155,7 +160,7 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
      *          Set to false when the controller will be destroyed.
      */
     public void setSelectable(boolean selectable) {
-        log.d("setSelectable " + selectable);
+        log.d("setSelectable {}", selectable);
         this.selectable = selectable;
     }
 
@@ -167,6 +172,46 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
         return config;
     }
 
+    /**
+     * Keep the connecting thread and the processor thread running when they have nothing to do,
+     * instead of leaving the executor and starting again on the next connection.
+     * They exit only when the controller is disposed.
+     *
+     * @param persistent <tt>true</tt> for long-lived event loops
+     */
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+        if (processor instanceof AbstractPollingIoProcessor) {
+            ((AbstractPollingIoProcessor) processor).setPersistent(persistent);
+        }
+    }
+
+    /**
+     * Set how the processor's event loop waits for the I/O events
+     *
+     * @param waitStrategy one of the {@link WaitStrategies}, or a custom one
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        if (processor instanceof AbstractPollingIoProcessor) {
+            ((AbstractPollingIoProcessor) processor).setWaitStrategy(waitStrategy);
+        }
+    }
+
+    /**
+     * @return the processor handling the sessions of this controller
+     */
+    public IOProcessor<S> getProcessor() {
+        return processor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IoStatistics getStatistics() {
+        return processor.getStatistics().snapshot();
+    }
+
     /**
      * Create a new {@link IOSession}
      *
@@ -243,7 +288,7 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
 
     private void runWorkerBee() throws InterruptedException {
         if(!selectable){
-            log.e("Working Processor can NOY be invoked, selectable = " + selectable);
+            log.e("Working Processor can NOY be invoked, selectable = {}", selectable);
             return;
         }
         // start the acceptor if not already started
@@ -283,7 +328,8 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
                         selected = select(1000);
                     }
                     nConnectSession += doConnectThenRegister();
-                    if(nConnectSession == 0 && connectQueue.isEmpty() && cancelConnectQueue.isEmpty() &&  isSelectorEmpty()){
+                    if(nConnectSession == 0 && connectQueue.isEmpty() && cancelConnectQueue.isEmpty() &&  isSelectorEmpty()
+                            && (!persistent || isDisposing())){
                         break;
                     }
                     if (selected > 0) {
@@ -334,7 +380,7 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
                 CH channel = null;
                 try {
                     session.parseRemoteAddress();
-                    channel = newChannel();
+                    channel = newChannel(session);
                     if (connect(channel, session.getRemoteAddress())) {
                         session.setChannel(channel);
                         session.prepare();
@@ -433,7 +479,7 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
                     log.e("processCancelQueue::Invalid future with a NULL session");
                     break;
                 }
-                log.d("processCancelQueue session:" + session.getId());
+                log.d("processCancelQueue session:{}", session.getId());
                 CH ch = (CH) session.getChannel();
                 try {
                     closeChannel(ch);
@@ -488,10 +534,11 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
     /**
      * Create a new client socket channel
      *
+     * @param session the session the channel is created for, its options come from the session config
      * @return a new client socket channel
      * @throws Exception any exception thrown by the underlying systems calls
      */
-    protected abstract CH newChannel() throws Exception;
+    protected abstract CH newChannel(S session) throws Exception;
 
     /**
      * Close a client socket.
@@ -526,13 +573,17 @@ public abstract class AbstractPollingIoController<S extends AbstractIOSession, C
     protected abstract boolean finishConnect(CH channel) throws Exception;
 
     /**
-     * Register a new client socket for connection operation, add it to polling
+     * Register a new client socket for connection operation, add it to polling.
+     * Only needed when {@link #connect(Object, SocketAddress)} may not connect immediately,
+     * the connection fails otherwise.
      *
      * @param channel client socket channel
      * @param future the {@link ConnectFuture} as the attachment
      * @throws Exception any exception thrown by the underlying systems calls
      */
-    protected abstract void registerConnecting(CH channel, IOFuture future) throws Exception;
+    protected void registerConnecting(CH channel, IOFuture future) throws Exception {
+        throw new IOException(getClass().getSimpleName() + " can't wait for a connection");
+    }
 
     /**
      * get the IOFuture for a given client socket channel
@@ -2,12 +2,18 @@ package com.sonf.polling;
 
 import android.os.SystemClock;
 
+import com.sonf.core.EventLoopPhase;
 import com.sonf.core.IOProcessor;
+import com.sonf.core.IoStatistics;
+import com.sonf.core.LatencyHistogram;
 import com.sonf.core.NamedRunnable;
 import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.StallListener;
 import com.sonf.core.filter.DefaultFilterChain;
+import com.sonf.core.filter.IFilter;
 import com.sonf.core.future.DefaultIOFuture;
 import com.sonf.core.session.AbstractIOSession;
+import com.sonf.core.session.IOHandler;
 import com.sonf.core.session.IOConfig;
 import com.sonf.core.session.IOSession;
 import com.sonf.core.write.IWritePacket;
@@ -21,9 +27,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -53,10 +57,39 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
     /** A queue used to store the sessions to be flushed */
     private final Queue<S> flushingSessions = new ConcurrentLinkedQueue<S>();
 
-    protected AtomicBoolean wakeupCalled = new AtomicBoolean(false);
+    /** A queue used to store the sessions which read or write was suspended or resumed */
+    private final Queue<S> trafficControllingSessions = new ConcurrentLinkedQueue<S>();
 
-    /** Tracks managed sessions. */
-    private final ConcurrentMap<Long, S> managedSessions = new ConcurrentHashMap<Long, S>();
+    /** Set by the first wake-up after a select, so the concurrent ones don't wake up the selector again */
+    protected final AtomicBoolean wakeupCalled = new AtomicBoolean(false);
+
+    /** Tracks managed sessions, by id. Only accessed from the processor thread */
+    private final LongObjectMap<S> managedSessions = new LongObjectMap<S>();
+
+    /** The I/O counters of all sessions handled by this processor */
+    private final IoStatistics statistics = new IoStatistics();
+
+    /** The time spent per loop iteration in each phase */
+    private final LatencyHistogram[] latencyHistograms = new LatencyHistogram[EventLoopPhase.values().length];
+
+    private static final long NOT_BUSY = Long.MIN_VALUE;
+    /** The nanoTime at which the current loop iteration left select(), or NOT_BUSY */
+    private volatile long busySince = NOT_BUSY;
+    /** The id of the session being handled by the processor thread, -1 if none */
+    private volatile long currentSessionId = -1;
+    private volatile Thread processorThread;
+    /** Marks the threads running a processor loop, whatever the processor */
+    private static final ThreadLocal<Boolean> inProcessorThread = new ThreadLocal<Boolean>();
+    private volatile long stallThresholdNanos;
+    private long stallReportedFor = NOT_BUSY;
+    private volatile StallListener stallListener;
+
+    /** Keep the processor thread when there is no session, until disposed */
+    private volatile boolean persistent;
+    private volatile WaitStrategy waitStrategy = WaitStrategies.BLOCKING;
+    private final WakeupCounters wakeupCounters = new WakeupCounters();
+    /** Set by the processor thread while it flushes sessions, to avoid flushing again from a messageSent() */
+    private boolean inFlush;
 
     /**
      * Constructor with the given executor.
@@ -70,6 +103,9 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
         }
 
         this.executor = executor;
+        for (int i = 0; i < latencyHistograms.length; i++) {
+            latencyHistograms[i] = new LatencyHistogram();
+        }
     }
 
     /**
@@ -138,8 +174,201 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
         // in the queue, then wake up the select()
         if (session.setScheduledForFlush(true)) {
             flushingSessions.add(session);
-            wakeup();
+            wakeupLoop();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final IoStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final LatencyHistogram getLatencyHistogram(EventLoopPhase phase) {
+        return latencyHistograms[phase.ordinal()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void setStallThresholdMs(long stallThresholdMs) {
+        if (stallThresholdMs < 0) {
+            throw new IllegalArgumentException("stallThresholdMs: " + stallThresholdMs + " (expected: 0+)");
+        }
+        stallThresholdNanos = stallThresholdMs * 1000000L;
+        if (stallThresholdMs > 0 && !disposing) {
+            StallDetector.register(this);
+        } else {
+            StallDetector.unregister(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void setStallListener(StallListener listener) {
+        this.stallListener = listener;
+    }
+
+    /**
+     * Called by the {@link StallDetector} thread.
+     * Report the current loop iteration once if it is busy for longer than the threshold.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    final void checkStall(long now) {
+        long since = busySince;
+        long threshold = stallThresholdNanos;
+        if (since == NOT_BUSY || since == stallReportedFor || threshold <= 0 || now - since < threshold) {
+            return;
+        }
+        stallReportedFor = since;
+
+        long sessionId = currentSessionId;
+        Thread thread = processorThread;
+        StackTraceElement[] stackTrace = (thread != null) ? thread.getStackTrace() : new StackTraceElement[0];
+        String filter = findFilter(stackTrace);
+        long stallMs = (now - since) / 1000000L;
+
+        StallListener listener = stallListener;
+        if (listener != null) {
+            listener.stallDetected(this, stallMs, sessionId, filter, stackTrace);
+        } else {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Processor stalled for ").append(stallMs).append("ms, session id=").append(sessionId)
+                    .append(", filter=").append(filter);
+            for (int i = 0; i < stackTrace.length && i < 8; i++) {
+                sb.append("\n\tat ").append(stackTrace[i]);
+            }
+            log.w(sb.toString());
+        }
+    }
+
+    /**
+     * @return the class name of the innermost filter or handler frame, or <tt>null</tt>
+     */
+    private String findFilter(StackTraceElement[] stackTrace) {
+        ClassLoader loader = getClass().getClassLoader();
+        for (StackTraceElement element : stackTrace) {
+            try {
+                Class<?> clazz = Class.forName(element.getClassName(), false, loader);
+                if (IFilter.class.isAssignableFrom(clazz) || IOHandler.class.isAssignableFrom(clazz)) {
+                    return clazz.getName();
+                }
+            } catch (ClassNotFoundException e) {
+                // Not visible from here, skip it
+            }
         }
+        return null;
+    }
+
+    /**
+     * Keep the processor thread running when there is no session left, instead of
+     * leaving the executor and starting again on the next session.
+     * The thread exits only when the processor is disposed.
+     *
+     * @param persistent <tt>true</tt> for a long-lived event loop
+     */
+    public final void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    /**
+     * @return <tt>true</tt> if the event loop is long-lived
+     */
+    public final boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Set how the event loop waits for the I/O events, taken into account on the next iteration
+     *
+     * @param waitStrategy one of the {@link WaitStrategies}, or a custom one
+     */
+    public final void setWaitStrategy(WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy");
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return the {@link WaitStrategy} of the event loop
+     */
+    public final WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return the counters of selects and wake-ups
+     */
+    public final WakeupCounters getWakeupCounters() {
+        return wakeupCounters;
+    }
+
+    /**
+     * @return <tt>true</tt> if the calling thread runs the loop of a processor,
+     * where blocking would stall all the sessions of that processor
+     */
+    public static boolean isProcessorThread() {
+        return inProcessorThread.get() != null;
+    }
+
+    /**
+     * Wake up the select() so the loop takes the new work into account.
+     * Nothing is done from the processor thread itself, which checks the pending work
+     * before waiting, nor when a wake-up is already pending since the last select.
+     */
+    private void wakeupLoop() {
+        if (Thread.currentThread() == processorThread || !wakeupCalled.compareAndSet(false, true)) {
+            wakeupCounters.increaseSavedWakeups();
+            return;
+        }
+        wakeupCounters.increaseWakeups();
+        wakeup();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void updateTrafficControl(S session) {
+        trafficControllingSessions.add(session);
+        wakeupLoop();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * When called from the processor thread outside of the flush phase, for example by a handler replying
+     * from messageReceived(), and nothing else is waiting to be written, the packet is written at once.
+     * Only the part the socket doesn't accept is left in the queue.
+     * During a {@link AbstractIOSession#writeAll(java.util.Collection)} the packet is only queued.
+     */
+    @Override
+    public final void write(S session, IWritePacket packet) {
+        boolean idle = session.getCurrentWritePacket() == null && session.isWriteQueueEmpty();
+        session.offerWritePacket(packet);
+        if (session.isWriteBatching()) {
+            // Checked once queued: a batch ending meanwhile flushes the packet too
+            return;
+        }
+        if (idle && !inFlush && Thread.currentThread() == processorThread && !session.isScheduledForFlush()) {
+            ProcessorBee bee = beeRef.get();
+            if (bee != null) {
+                bee.writeThrough(session);
+                return;
+            }
+        }
+        flush(session);
     }
 
     private void scheduleFlush(S session) {
@@ -167,62 +396,61 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 executor.execute(new NamedRunnable(bee, name));
             }
         }
-        wakeup();
+        wakeupLoop();
     }
 
-    class ProcessorBee implements Runnable{
+    class ProcessorBee implements Runnable, WaitStrategy.Poller {
         private static final long SELECT_TIMEOUT = 1000L;
         private long lastIdleCheckTime;
+        private int nbTries = 10;
+        /**
+         * Set while writing through from an event handler: the session is in use up the stack,
+         * so closing and removing it are left to the loop
+         */
+        private boolean writingThrough;
         @Override
         public void run() {
             assert (beeRef.get() == this);
 
             int nSessions = 0;
-            int nbTries = 10;
             lastIdleCheckTime = SystemClock.elapsedRealtime();
+            processorThread = Thread.currentThread();
+            inProcessorThread.set(Boolean.TRUE);
             for (;;) {
                 try {
-                    long t_s = SystemClock.elapsedRealtime();
-                    int selected = select(SELECT_TIMEOUT);
-                    long t_e = SystemClock.elapsedRealtime();
-                    long delta = t_e - t_s;
-                    /*---Followed refer to mina but may not happened on a Android device.------------
-                    mina is for internet server where the environment might be more complex-----------------*/
-                    if (!wakeupCalled.getAndSet(false) && (selected == 0) && (delta < 100)) {
-                        // the select() may have been interrupted because we have had an closed channel.
-                        if (isBrokenConnection()) {
-                            log.w("Broken connection");
-                        } else {
-                            // Ok, we are hit by the nasty epoll spinning.
-                            // Basically, there is a race condition which causes a closing file descriptor not to be
-                            // considered as available as a selected channel,
-                            // but
-                            // it stopped the select. The next time we will call select(), it will exit immediately for the
-                            // same reason, and do so forever, consuming 100% CPU.
-                            // We have to destroy the selector, and register all the socket on a new one.
-                            if (nbTries == 0) {
-                                log.w("Create a new selector. Selected is 0, delta = " + delta);
-                                registerNewSelector();
-                                nbTries = 10;
-                            } else {
-                                nbTries--;
-                            }
-                        }
-                    }else {
-                        nbTries = 10;
-                    }
-                    /*------------------------------------------------------------------------------------*/
+                    busySince = NOT_BUSY;
+                    long t_s = System.nanoTime();
+                    // Work queued by the processor thread itself doesn't wake up the selector
+                    int selected = hasQueuedSessions() ? selectNow() : waitStrategy.waitFor(this, SELECT_TIMEOUT);
+                    long t_e = System.nanoTime();
+                    busySince = t_e;
+                    record(EventLoopPhase.SELECT, t_s, t_e);
 
                     nSessions += registerNewSessions();
+                    long t = System.nanoTime();
                     if (selected > 0) {
                         process();
+                        t = record(EventLoopPhase.PROCESS, t, System.nanoTime());
                     }
                     long curElapsedTime = SystemClock.elapsedRealtime();
-                    flush(curElapsedTime);
+                    if (!flushingSessions.isEmpty()) {
+                        flush(curElapsedTime);
+                        t = record(EventLoopPhase.FLUSH, t, System.nanoTime());
+                    }
+                    if (!trafficControllingSessions.isEmpty()) {
+                        updateTrafficMask();
+                    }
 
-                    nSessions -= removeSessions();
-                    notifyIdleSessions(curElapsedTime);
-                    if (nSessions <= 0 && newSessions.isEmpty() && isSelectorEmpty()) {
+                    if (!removingSessions.isEmpty()) {
+                        nSessions -= removeSessions();
+                        t = record(EventLoopPhase.REMOVE_SESSIONS, t, System.nanoTime());
+                    }
+                    if (notifyIdleSessions(curElapsedTime)) {
+                        record(EventLoopPhase.NOTIFY_IDLE, t, System.nanoTime());
+                    }
+                    currentSessionId = -1;
+                    if (nSessions <= 0 && newSessions.isEmpty() && isSelectorEmpty()
+                            && (!persistent || isDisposing())) {
                         break;
                     }
 
@@ -236,17 +464,21 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                             }
                         }
                         if (hasKeys) {
-                            wakeup();
+                            wakeupLoop();
                         }
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
+            busySince = NOT_BUSY;
+            processorThread = null;
+            inProcessorThread.remove();
             beeRef.set(null);
             try {
                 synchronized (disposalLock) {
                     if (disposing) {
+                        StallDetector.unregister(AbstractPollingIoProcessor.this);
                         doDispose();
                     }
                 }
@@ -259,11 +491,86 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
             }
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int select(long timeoutMs) throws Exception {
+            long t_s = System.nanoTime();
+            int selected = AbstractPollingIoProcessor.this.select(timeoutMs);
+            long delta = (System.nanoTime() - t_s) / 1000000L;
+            boolean woken = wakeupCalled.getAndSet(false);
+            wakeupCounters.increaseBlockingSelects(woken);
+            /*---Followed refer to mina but may not happened on a Android device.------------
+            mina is for internet server where the environment might be more complex-----------------*/
+            if (!woken && (selected == 0) && (delta < 100)) {
+                // the select() may have been interrupted because we have had an closed channel.
+                if (isBrokenConnection()) {
+                    log.w("Broken connection");
+                } else {
+                    // Ok, we are hit by the nasty epoll spinning.
+                    // Basically, there is a race condition which causes a closing file descriptor not to be
+                    // considered as available as a selected channel,
+                    // but
+                    // it stopped the select. The next time we will call select(), it will exit immediately for the
+                    // same reason, and do so forever, consuming 100% CPU.
+                    // We have to destroy the selector, and register all the socket on a new one.
+                    if (nbTries == 0) {
+                        log.w("Create a new selector. Selected is 0, delta = {}", delta);
+                        registerNewSelector();
+                        nbTries = 10;
+                    } else {
+                        nbTries--;
+                    }
+                }
+            }else {
+                nbTries = 10;
+            }
+            /*------------------------------------------------------------------------------------*/
+            return selected;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int selectNow() throws Exception {
+            int selected = AbstractPollingIoProcessor.this.selectNow();
+            // A pending wake-up is consumed by selectNow()
+            wakeupCalled.set(false);
+            wakeupCounters.increaseSelectNows(selected > 0);
+            return selected;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasPendingTasks() {
+            return hasQueuedSessions() || isDisposing();
+        }
+
+        private boolean hasQueuedSessions() {
+            return !newSessions.isEmpty() || !flushingSessions.isEmpty() || !removingSessions.isEmpty()
+                    || !trafficControllingSessions.isEmpty();
+        }
+
+        /**
+         * Record the time of a phase
+         *
+         * @return the end time, which is the start of the next phase
+         */
+        private long record(EventLoopPhase phase, long start, long end) {
+            latencyHistograms[phase.ordinal()].record(end - start);
+            return end;
+        }
+
         private void process() throws Exception {
             for (Iterator<S> i = selectedSessions(); i.hasNext();) {
                 S session = i.next();
-                // Process Reads
-                if (isReadable(session)) {
+                currentSessionId = session.getId();
+                // Process Reads, unless suspended since the select
+                if (isReadable(session) && !session.isReadSuspended()) {
                     readFrom(session);
                 }
 
@@ -277,7 +584,10 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
         }
 
         private void readFrom(S session) {
-            log.d("readFrom: session id=" + session.getId());
+            if (isMessageOriented()) {
+                readMessagesFrom(session);
+                return;
+            }
             IoBuffer buf = session.getReadIOBuffer();
             buf.clear();
             try {
@@ -293,9 +603,13 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 } finally {
                     buf.flip();
                 }
-                log.i("readFrom:readBytes = " + readBytes);
+                if (log.isDebugEnabled()) {
+                    log.d("readFrom: session id={}, readBytes = {}", session.getId(), readBytes);
+                }
                 if (readBytes > 0) {
                     session.updateReadTime(SystemClock.elapsedRealtime());
+                    session.getStatistics().increaseReadBytes(readBytes);
+                    statistics.increaseReadBytes(readBytes);
                     session.getFilterChain().fireMessageReceived(buf);
                 }
                 if (ret < 0) {
@@ -312,16 +626,84 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
 
         }
 
+        /**
+         * Every read returns a whole message which is fired alone,
+         * the read buffer is reused for the next one.
+         */
+        private void readMessagesFrom(S session) {
+            IoBuffer buf = session.getReadIOBuffer();
+            final int maxMessages = getMaxReadMessages(session);
+            try {
+                for (int i = 0; i < maxMessages; i++) {
+                    buf.clear();
+                    int ret;
+                    try {
+                        ret = read(session, buf);
+                    } finally {
+                        buf.flip();
+                    }
+                    if (ret <= 0) {
+                        break;
+                    }
+                    session.updateReadTime(SystemClock.elapsedRealtime());
+                    session.getStatistics().increaseReadBytes(ret);
+                    statistics.increaseReadBytes(ret);
+                    session.getFilterChain().fireMessageReceived(buf);
+                }
+            } catch (Exception e) {
+                if (e instanceof IOException) {
+                    if (!(e instanceof PortUnreachableException)) {
+                        scheduleRemove(session);
+                    }
+                }
+                session.getFilterChain().fireExceptionCaught(e);
+            }
+        }
+
+        /**
+         * Write the queue of a session at once, from the processor thread
+         */
+        private void writeThrough(S session) {
+            if (getState(session) != SessionState.OPENED) {
+                scheduleFlush(session);
+                return;
+            }
+            inFlush = true;
+            writingThrough = true;
+            try {
+                boolean flushedAll = flushNow(session, SystemClock.elapsedRealtime());
+                if (flushedAll && !session.isWriteQueueEmpty() && !session.isScheduledForFlush()) {
+                    scheduleFlush(session);
+                }
+            } catch (Exception e) {
+                scheduleRemove(session);
+                session.getFilterChain().fireExceptionCaught(e);
+            } finally {
+                writingThrough = false;
+                inFlush = false;
+            }
+        }
+
         private void flush(long curElapsedTime) {
             if (flushingSessions.isEmpty()) {
                 return;
             }
+            inFlush = true;
+            try {
+                flush0(curElapsedTime);
+            } finally {
+                inFlush = false;
+            }
+        }
+
+        private void flush0(long curElapsedTime) {
             do {
                 S session = flushingSessions.poll();
                 if (session == null) {
                     //should not happen.
                     break;
                 }
+                currentSessionId = session.getId();
 
                 session.setScheduledForFlush(false);
                 SessionState state = getState(session);
@@ -329,7 +711,7 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                     case OPENED:
                         try {
                             boolean flushedAll = flushNow(session, curElapsedTime);
-                            if (flushedAll && !session.getWriteQueue().isEmpty()
+                            if (flushedAll && !session.isWriteQueueEmpty()
                                     && !session.isScheduledForFlush()) {
                                 scheduleFlush(session);
                             }
@@ -362,9 +744,11 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 scheduleRemove(session);
                 return false;
             }
-            Queue<IWritePacket> queue = session.getWriteQueue();
-
-            final int maxWrittenBytes = session.getConfig().getMaxWriteBytes();
+            if (session.isWriteSuspended()) {
+                // Flushed again by resumeWrite()
+                return false;
+            }
+            final int maxWrittenBytes = session.getEffectiveConfig().getMaxWriteBytes();
             int writtenBytes = 0;
             IWritePacket packet = null;
 
@@ -374,8 +758,14 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 // Check for pending writes.
                 packet = session.getCurrentWritePacket();
                 if (packet == null) {
-                    packet = queue.poll();
+                    packet = session.pollWritePacket();
                     if(packet == AbstractIOSession.CLOSE_REQUEST){
+                        if (writingThrough) {
+                            // Back in the queue, closed by the next flush of the loop
+                            session.offerWritePacket(packet);
+                            scheduleFlush(session);
+                            return false;
+                        }
                         session.closeNow();
                         packet = null;
                     }
@@ -384,15 +774,27 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                         break;
                     }
 
+                    if (packet.getStartTime() == 0L) {
+                        // Not set by writeVoid()
+                        packet.setStartTime(curElapsedTime);
+                    }
                     session.setCurrentWritePacket(packet);
                 }
                 Object message = packet.getMessage();
                 if (message instanceof IoBuffer) {
                     IoBuffer buffer = (IoBuffer) message;
-                    int perWrittenBytes = writeBuffer(session, buffer, maxWrittenBytes - writtenBytes, curElapsedTime);
+                    // A message can't be split, it is written entirely or not at all
+                    int maxLength = isMessageOriented() ? buffer.remaining() : maxWrittenBytes - writtenBytes;
+                    int perWrittenBytes = writeBuffer(session, buffer, maxLength, curElapsedTime);
+                    if (perWrittenBytes < 0) {
+                        // The session is removed
+                        return false;
+                    }
                     // Now, forward the original message
                     if (!buffer.hasRemaining()) {
                         session.setCurrentWritePacket(null);
+                        session.getStatistics().increaseWrittenMessages();
+                        statistics.increaseWrittenMessages();
                         session.getFilterChain().fireMessageSent(packet);
                     }
                     if ((perWrittenBytes > 0) && buffer.hasRemaining()) {
@@ -427,17 +829,27 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 int length = Math.min(buf.remaining(),maxLength);
                 try {
                     writtenBytes = write(session, buf, length);
-                    log.i("writeBuffer:"+ writtenBytes);
+                    if (log.isDebugEnabled()) {
+                        log.d("writeBuffer: {}", writtenBytes);
+                    }
                 } catch (IOException ioe) {
                     // We have had an issue while trying to send data to the
                     // peer : let's close the session.
                     buf.free();
-                    session.closeNow();
-                    removeNow(session);
+                    if (writingThrough) {
+                        scheduleRemove(session);
+                    } else {
+                        session.closeNow();
+                        removeNow(session);
+                    }
                     return -1;
                 }
             }
-            if(writtenBytes > 0) session.updateWrittenTime(curElapsedTime);
+            if (writtenBytes > 0) {
+                session.updateWrittenTime(curElapsedTime);
+                session.getStatistics().increaseWrittenBytes(writtenBytes);
+                statistics.increaseWrittenBytes(writtenBytes);
+            }
             return writtenBytes;
         }
 
@@ -448,6 +860,7 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 if(session == null){
                     break;
                 }
+                currentSessionId = session.getId();
                 SessionState state = getState(session);
                 switch (state) {
                     case OPENED:
@@ -483,8 +896,12 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 if(session == null){
                     break;
                 }
+                currentSessionId = session.getId();
                 try {
                     initToRead(session);
+                    if (session.isReadSuspended() || session.isWriteSuspended()) {
+                        trafficControllingSessions.add(session);
+                    }
                     // build chain here ??
                     session.getController().getFilterChainBuilder().buildChain(session.getFilterChainMatcher(), session.getFilterChain());
                     addManagedSession(session);
@@ -505,21 +922,60 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
             return count;
         }
 
-        private void notifyIdleSessions(long curElapsedTime) throws Exception {
+        /**
+         * Set the read and write interest of the sessions which suspension changed
+         */
+        private void updateTrafficMask() {
+            for (;;) {
+                S session = trafficControllingSessions.poll();
+                if (session == null) {
+                    break;
+                }
+                if (getState(session) != SessionState.OPENED) {
+                    // Applied when registered, nothing left to do when closing
+                    continue;
+                }
+                currentSessionId = session.getId();
+                setInterestedInRead(session, !session.isReadSuspended());
+                boolean pending = session.getCurrentWritePacket() != null || !session.isWriteQueueEmpty();
+                if (session.isWriteSuspended()) {
+                    setInterestedInWrite(session, false);
+                } else if (pending) {
+                    scheduleFlush(session);
+                }
+            }
+        }
+
+        /**
+         * @return <tt>true</tt> if the idle check has been run
+         */
+        private boolean notifyIdleSessions(long curElapsedTime) throws Exception {
             if (curElapsedTime - lastIdleCheckTime >= SELECT_TIMEOUT) {
                 lastIdleCheckTime = curElapsedTime;
+                statistics.updateThroughput(curElapsedTime);
                 Iterator<S> it = allSessions();
                 while (it.hasNext()) {
                     S session = it.next();
                     if (!session.getCloseFuture().isClosed()) {
+                        currentSessionId = session.getId();
+                        session.getStatistics().updateThroughput(curElapsedTime);
                         session.notifyIdleSession(curElapsedTime);
                     }
                 }
+                return true;
             }
+            return false;
         }
     }
 
     private boolean removeNow(S session) {
+        if (session.isClosing()) {
+            try {
+                session.destroyWriteQueue();
+            } catch (Exception e) {
+                session.getFilterChain().fireExceptionCaught(e);
+            }
+        }
         clearWriteQueue(session);
 
         try {
@@ -540,12 +996,11 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
     }
 
     private void clearWriteQueue(S session) {
-        Queue<IWritePacket> queue = session.getWriteQueue();
         IWritePacket packet;
 
         List<IWritePacket> failedList = new ArrayList<IWritePacket>();
 
-        if ((packet = queue.poll()) != null) {
+        if ((packet = session.pollWritePacket()) != null) {
             Object message = packet.getMessage();
             if (message instanceof IoBuffer) {
                 IoBuffer buf = (IoBuffer) message;
@@ -558,9 +1013,7 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
                 failedList.add(packet);
             }
             // Discard others.
-            while ((packet = queue.poll()) != null) {
-                failedList.add(packet);
-            }
+            session.drainWritePackets(failedList);
         }
 
         if (!failedList.isEmpty()) {
@@ -577,7 +1030,7 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
         if (managedSessions.putIfAbsent(session.getId(), session) != null) {
             return;
         }
-        log.d("addManagedSession: session added id=" + session.getId());
+        log.d("addManagedSession: session added id={}", session.getId());
         if(firstAdded) session.getController().activate();
         session.getFilterChain().fireSessionOpened();
     }
@@ -592,6 +1045,26 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
         session.getFilterChain().fireSessionClosed();
     }
 
+    /**
+     * Tells if the transport preserves message boundaries (datagrams).
+     * In that case each read returns one whole message which is fired alone,
+     * and each write packet is written as one message.
+     *
+     * @return <tt>true</tt> for a message oriented transport, <tt>false</tt> as default
+     */
+    protected boolean isMessageOriented() {
+        return false;
+    }
+
+    /**
+     * @param session the session to read
+     * @return the maximum number of messages read from the session per select() wake-up,
+     *          used only if {@link #isMessageOriented()}
+     */
+    protected int getMaxReadMessages(S session) {
+        return 1;
+    }
+
     /**
      * In the case we are using the java select() method, this method is used to
      * trash the buggy selector and create a new one, registring all the sockets
@@ -628,6 +1101,14 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
      */
     protected abstract int select(long timeout) throws Exception;
 
+    /**
+     * poll sessions without blocking
+     *
+     * @return The number of session ready for read or for write
+     * @throws Exception if some low level IO error occurs
+     */
+    protected abstract int selectNow() throws Exception;
+
     /**
      * @return whether the list of sessions polled by this {@link IOProcessor} is empty
      */
@@ -635,6 +1116,7 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
 
     /**
      * Interrupt the {@link #select(long)} call.
+     * Called at most once per select, see {@link #wakeupCalled}.
      */
     protected abstract void wakeup();
 
@@ -677,6 +1159,14 @@ public abstract class AbstractPollingIoProcessor <S extends AbstractIOSession> i
      */
     protected abstract void setInterestedInWrite(S session, boolean isInterested);
 
+    /**
+     * Set the session to be informed when it's readable
+     *
+     * @param session the session for which we want to wait for readable events
+     * @param isInterested <tt>true</tt> for registering, <tt>false</tt> for removing
+     */
+    protected abstract void setInterestedInRead(S session, boolean isInterested);
+
     /**
      * Reads a sequence of bytes from a {@link IOSession} into the given
      * {@link IoBuffer}.
@@ -0,0 +1,145 @@
+package com.sonf.polling;
+
+/**
+ * A map from <tt>long</tt> keys to values, with open addressing and linear probing,
+ * so no <tt>Long</tt> or entry is allocated per key.
+ * It isn't thread safe, a processor only accesses it from its thread.
+ *
+ * @param <V> the type of the values
+ */
+final class LongObjectMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    /** The size over which the tables are doubled, 3/4 of their length */
+    private int threshold;
+
+    /**
+     * Constructor
+     */
+    LongObjectMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return <tt>true</tt> if there is no key
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = indexOf(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @param value the value, not <code>null</code>
+     * @return the current value of the key, <code>null</code> if the value was added
+     */
+    @SuppressWarnings("unchecked")
+    V putIfAbsent(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value");
+        }
+        int mask = keys.length - 1;
+        int i = indexOf(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @return the removed value, <code>null</code> if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int mask = keys.length - 1;
+        for (int i = indexOf(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = null;
+                size--;
+                shiftBack(i, mask);
+                return old;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move back the following keys of the probe sequence into the freed slot,
+     * so a lookup never stops before its key
+     */
+    private void shiftBack(int free, int mask) {
+        for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = indexOf(keys[i], mask);
+            // Move it unless its home is cyclically in (free, i]
+            boolean stays = (free <= i) ? (free < home && home <= i) : (free < home || home <= i);
+            if (!stays) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                values[i] = null;
+                free = i;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = indexOf(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        threshold = capacity - (capacity >>> 2);
+    }
+
+    private static int indexOf(long key, int mask) {
+        // The session ids are sequential, spread them anyway
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,62 @@
+package com.sonf.polling;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A single daemon thread checking the processors which have a stall threshold.
+ * It only runs while at least one processor is registered.
+ */
+final class StallDetector implements Runnable {
+    private static final long CHECK_INTERVAL_MS = 20L;
+
+    private static final List<AbstractPollingIoProcessor<?>> processors =
+            new CopyOnWriteArrayList<AbstractPollingIoProcessor<?>>();
+    private static Thread thread;
+
+    private StallDetector() {
+    }
+
+    static synchronized void register(AbstractPollingIoProcessor<?> processor) {
+        if (!processors.contains(processor)) {
+            processors.add(processor);
+        }
+        if (thread == null) {
+            String name = StallDetector.class.getSimpleName();
+            thread = new Thread(new StallDetector(), name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static synchronized void unregister(AbstractPollingIoProcessor<?> processor) {
+        processors.remove(processor);
+    }
+
+    private static synchronized boolean shouldStop() {
+        if (processors.isEmpty()) {
+            thread = null;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        while (!shouldStop()) {
+            try {
+                Thread.sleep(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            long now = System.nanoTime();
+            for (AbstractPollingIoProcessor<?> processor : processors) {
+                try {
+                    processor.checkStall(now);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
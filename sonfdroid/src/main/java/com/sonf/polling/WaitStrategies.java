@@ -0,0 +1,88 @@
+package com.sonf.polling;
+
+/**
+ * The built-in {@link WaitStrategy}s
+ */
+public final class WaitStrategies {
+    /** Block in select(), the default. Lowest CPU usage. */
+    public static final WaitStrategy BLOCKING = new Blocking();
+
+    /**
+     * Spin on selectNow() without sleeping, never blocks. Lowest latency, but keeps one core
+     * busy per processor even without traffic. Only for dedicated low-latency deployments.
+     */
+    public static final WaitStrategy BUSY_POLL = new BusyPoll();
+
+    private WaitStrategies() {
+    }
+
+    /**
+     * Spin on selectNow() for a bounded time, then block in select().
+     * Saves the wake-up latency when events come in bursts.
+     *
+     * @param spinMicros how long to spin before blocking, in microseconds
+     * @return the strategy
+     */
+    public static WaitStrategy spinThenBlock(long spinMicros) {
+        if (spinMicros < 0) {
+            throw new IllegalArgumentException("spinMicros: " + spinMicros + " (expected: 0+)");
+        }
+        return new SpinThenBlock(spinMicros * 1000L);
+    }
+
+    private static final class Blocking implements WaitStrategy {
+        @Override
+        public int waitFor(Poller poller, long timeoutMs) throws Exception {
+            return poller.select(timeoutMs);
+        }
+
+        @Override
+        public String toString() {
+            return "BLOCKING";
+        }
+    }
+
+    private static final class SpinThenBlock implements WaitStrategy {
+        private final long spinNanos;
+
+        private SpinThenBlock(long spinNanos) {
+            this.spinNanos = spinNanos;
+        }
+
+        @Override
+        public int waitFor(Poller poller, long timeoutMs) throws Exception {
+            long deadline = System.nanoTime() + spinNanos;
+            do {
+                int selected = poller.selectNow();
+                if (selected > 0 || poller.hasPendingTasks()) {
+                    return selected;
+                }
+            } while (System.nanoTime() - deadline < 0);
+            return poller.select(timeoutMs);
+        }
+
+        @Override
+        public String toString() {
+            return "SPIN_THEN_BLOCK(" + spinNanos / 1000L + "us)";
+        }
+    }
+
+    private static final class BusyPoll implements WaitStrategy {
+        @Override
+        public int waitFor(Poller poller, long timeoutMs) throws Exception {
+            long deadline = System.nanoTime() + timeoutMs * 1000000L;
+            do {
+                int selected = poller.selectNow();
+                if (selected > 0 || poller.hasPendingTasks()) {
+                    return selected;
+                }
+            } while (System.nanoTime() - deadline < 0);
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "BUSY_POLL";
+        }
+    }
+}
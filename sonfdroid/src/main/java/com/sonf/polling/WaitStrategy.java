@@ -0,0 +1,45 @@
+package com.sonf.polling;
+
+/**
+ * How the event loop of an {@link AbstractPollingIoProcessor} waits for I/O events.
+ * The built-in strategies are in {@link WaitStrategies}.
+ */
+public interface WaitStrategy {
+    /**
+     * The operations of the event loop available to a strategy
+     */
+    interface Poller {
+        /**
+         * Block until an event, a wake-up, or the timeout
+         *
+         * @param timeoutMs the timeout in milliseconds
+         * @return the number of ready sessions
+         * @throws Exception if some low level IO error occurs
+         */
+        int select(long timeoutMs) throws Exception;
+
+        /**
+         * Poll the events without blocking
+         *
+         * @return the number of ready sessions
+         * @throws Exception if some low level IO error occurs
+         */
+        int selectNow() throws Exception;
+
+        /**
+         * @return <tt>true</tt> if sessions are waiting to be added, flushed or removed,
+         * the strategy should return at once
+         */
+        boolean hasPendingTasks();
+    }
+
+    /**
+     * Wait for the next events. Called by the processor thread on each loop iteration.
+     *
+     * @param poller the event loop
+     * @param timeoutMs the longest time to wait, the loop checks the idle sessions in between
+     * @return the number of ready sessions
+     * @throws Exception if some low level IO error occurs
+     */
+    int waitFor(Poller poller, long timeoutMs) throws Exception;
+}
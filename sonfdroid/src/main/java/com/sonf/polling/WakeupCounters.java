@@ -0,0 +1,91 @@
+package com.sonf.polling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the selects and wake-ups of a processor's event loop,
+ * to check the effect of the {@link WaitStrategy}.
+ */
+public class WakeupCounters {
+    private final AtomicLong wakeups = new AtomicLong();
+    private final AtomicLong savedWakeups = new AtomicLong();
+    private volatile long blockingSelects;
+    private volatile long wokenSelects;
+    private volatile long selectNows;
+    private volatile long selectNowHits;
+
+    /**
+     * @return the number of wake-ups issued to the selector
+     */
+    public long getWakeups() {
+        return wakeups.get();
+    }
+
+    /**
+     * @return the number of wake-ups not issued, because one was already pending
+     * or because the work was queued by the processor thread itself
+     */
+    public long getSavedWakeups() {
+        return savedWakeups.get();
+    }
+
+    /**
+     * @return the number of blocking selects
+     */
+    public long getBlockingSelects() {
+        return blockingSelects;
+    }
+
+    /**
+     * @return the number of blocking selects ended by a wake-up
+     */
+    public long getWokenSelects() {
+        return wokenSelects;
+    }
+
+    /**
+     * @return the number of non blocking selects
+     */
+    public long getSelectNows() {
+        return selectNows;
+    }
+
+    /**
+     * @return the number of non blocking selects which found ready sessions
+     */
+    public long getSelectNowHits() {
+        return selectNowHits;
+    }
+
+    void increaseWakeups() {
+        wakeups.incrementAndGet();
+    }
+
+    void increaseSavedWakeups() {
+        savedWakeups.incrementAndGet();
+    }
+
+    void increaseBlockingSelects(boolean woken) {
+        blockingSelects++;
+        if (woken) {
+            wokenSelects++;
+        }
+    }
+
+    void increaseSelectNows(boolean hit) {
+        selectNows++;
+        if (hit) {
+            selectNowHits++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "WakeupCounters[wakeups=" + getWakeups() + " saved=" + getSavedWakeups()
+                + " blockingSelects=" + blockingSelects + " woken=" + wokenSelects
+                + " selectNows=" + selectNows + " hits=" + selectNowHits + "]";
+    }
+}
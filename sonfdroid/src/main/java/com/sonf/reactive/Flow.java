@@ -0,0 +1,75 @@
+package com.sonf.reactive;
+
+/**
+ * The Reactive Streams interfaces, with the same shape as <tt>java.util.concurrent.Flow</tt>
+ * which isn't available on Android. An adapter to any Reactive Streams library is a one-liner
+ * for each interface.
+ */
+public final class Flow {
+    private Flow() {
+    }
+
+    /**
+     * A producer of items, received by its subscribers on demand
+     *
+     * @param <T> the type of the items
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds the subscriber, which gets {@link Subscriber#onSubscribe(Subscription)} first
+         *
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods are never called concurrently.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called before any other method, with the subscription to request items from
+         *
+         * @param subscription the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item, never more than requested
+         *
+         * @param item the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called once when the publisher fails, nothing is called afterwards
+         *
+         * @param throwable the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called once when there is no more item, nothing is called afterwards
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and one subscriber
+     */
+    public interface Subscription {
+        /**
+         * Adds to the number of items the subscriber is ready to receive
+         *
+         * @param n the number of items, a positive value
+         */
+        void request(long n);
+
+        /**
+         * Stops the items, eventually
+         */
+        void cancel();
+    }
+}
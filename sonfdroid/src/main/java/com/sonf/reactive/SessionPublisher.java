@@ -0,0 +1,274 @@
+package com.sonf.reactive;
+
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.buffer.SimpleIoBuffer;
+import com.sonf.core.filter.IFilterAdapter;
+import com.sonf.core.filter.IFilterChain;
+import com.sonf.core.session.IOHandler;
+import com.sonf.core.session.IOSession;
+import com.sonf.core.session.ReadSuspension;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of the messages received by a session, once decoded by its filter chain.
+ *
+ * The subscription is a filter added at the end of the chain: the messages go to the subscriber
+ * instead of the {@link IOHandler}, the other events still reach the handler.
+ * Reading from the channel is suspended whenever the subscriber has no outstanding demand, so a
+ * slow subscriber holds the peer back through the transport window. At most the messages decoded
+ * from one read are buffered. This suspension is kept apart from the others, see {@link ReadSuspension}.
+ *
+ * The subscriber completes when the session is closed, or gets the last exception caught on the
+ * session if it was closed because of it. After a cancellation, or once the subscriber is terminated,
+ * the messages go to the handler again, starting with those it didn't get.
+ * A session has a single subscriber at a time. Once the messages it didn't get are handed over,
+ * the subscription leaves the chain and the session can be subscribed again.
+ */
+public class SessionPublisher implements Flow.Publisher<Object> {
+    private static final String FILTER_NAME = SessionPublisher.class.getName();
+
+    private final IOSession session;
+
+    /**
+     * Constructor
+     *
+     * @param session the session which messages are published
+     */
+    public SessionPublisher(IOSession session) {
+        if (session == null) {
+            throw new IllegalArgumentException("session");
+        }
+        this.session = session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        InboundSubscription subscription = new InboundSubscription(subscriber);
+        try {
+            session.getFilterChain().addLast(FILTER_NAME, subscription);
+        } catch (IllegalArgumentException e) {
+            subscriber.onSubscribe(subscription);
+            subscription.fail(new IllegalStateException("session " + session.getId() + " already has a subscriber"));
+            return;
+        }
+        subscription.attached = true;
+        // No demand yet
+        session.suspendRead(ReadSuspension.BACKPRESSURE);
+        subscriber.onSubscribe(subscription);
+        if (!session.isActive()) {
+            subscription.sessionClosed();
+        }
+    }
+
+    /**
+     * Both the subscription and the filter feeding it
+     */
+    private final class InboundSubscription extends IFilterAdapter implements Flow.Subscription {
+        private final Queue<Object> messages = new ConcurrentLinkedQueue<Object>();
+        private final AtomicLong requested = new AtomicLong();
+        /** Serializes drain(), the count of the calls to run it again */
+        private final AtomicInteger wip = new AtomicInteger();
+        /** Set to null once terminated or cancelled */
+        private volatile Flow.Subscriber<? super Object> subscriber;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile Throwable lastException;
+        /** Only accessed in drain() */
+        private boolean reading;
+        /** The entry after this filter, to hand the buffered messages over once cancelled */
+        private volatile IFilterChain.Entry next;
+        /** Unset if refused, the reads are then left alone */
+        private volatile boolean attached;
+        /** Set once removed from the chain */
+        private final AtomicBoolean detached = new AtomicBoolean();
+
+        private InboundSubscription(Flow.Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request(" + n + ")"));
+                return;
+            }
+            for (;;) {
+                long r = requested.get();
+                long u = r + n;
+                if (u < 0) {
+                    u = Long.MAX_VALUE;
+                }
+                if (requested.compareAndSet(r, u)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                subscriber = null;
+                resumeRead();
+                // Hand the messages already read over to the handler
+                drain();
+            }
+        }
+
+        private void fail(Throwable cause) {
+            error = cause;
+            done = true;
+            drain();
+        }
+
+        private void sessionClosed() {
+            error = lastException;
+            done = true;
+            drain();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void messageReceived(IFilterChain.Entry next, IOSession session, Object message) throws Exception {
+            this.next = next;
+            if (cancelled && messages.isEmpty() && wip.get() == 0) {
+                super.messageReceived(next, session, message);
+                return;
+            }
+            // Behind the buffered ones, even when they are being handed over to the handler
+            messages.offer((message instanceof IoBuffer) ? SimpleIoBuffer.copyOf((IoBuffer) message) : message);
+            drain();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void exceptionCaught(IFilterChain.Entry next, IOSession session, Throwable cause) {
+            lastException = cause;
+            super.exceptionCaught(next, session, cause);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void sessionClosed(IFilterChain.Entry next, IOSession session) throws Exception {
+            sessionClosed();
+            super.sessionClosed(next, session);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                Flow.Subscriber<? super Object> s = subscriber;
+                if (s != null) {
+                    long r = requested.get();
+                    long emitted = 0;
+                    while (emitted != r && !cancelled) {
+                        Object message = messages.poll();
+                        if (message == null) {
+                            break;
+                        }
+                        s.onNext(message);
+                        emitted++;
+                    }
+                    if (emitted != 0 && r != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+                    if (done && !cancelled && (messages.isEmpty() || error != null)) {
+                        terminate(s);
+                    } else if (!cancelled && !done) {
+                        boolean wanted = requested.get() > 0;
+                        if (wanted != reading) {
+                            reading = wanted;
+                            if (wanted) {
+                                session.resumeRead(ReadSuspension.BACKPRESSURE);
+                            } else {
+                                session.suspendRead(ReadSuspension.BACKPRESSURE);
+                            }
+                        }
+                    }
+                }
+                if (cancelled) {
+                    forward();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+            if (cancelled) {
+                detach();
+            }
+        }
+
+        private void terminate(Flow.Subscriber<? super Object> s) {
+            // Like a cancellation, the handler gets what comes next
+            cancelled = true;
+            subscriber = null;
+            resumeRead();
+            Throwable cause = error;
+            if (cause != null) {
+                s.onError(cause);
+            } else {
+                s.onComplete();
+            }
+        }
+
+        private void resumeRead() {
+            if (attached) {
+                session.resumeRead(ReadSuspension.BACKPRESSURE);
+            }
+        }
+
+        /**
+         * Leave the chain, so that the session can be subscribed again.
+         * A message already on its way to this filter still gets forwarded by it.
+         */
+        private void detach() {
+            if (attached && detached.compareAndSet(false, true)) {
+                session.getFilterChain().remove(this);
+            }
+        }
+
+        /**
+         * Pass the messages the subscriber didn't get on to the rest of the chain, in order
+         */
+        private void forward() {
+            Object message;
+            while ((message = messages.poll()) != null) {
+                IFilterChain.Entry entry = next;
+                try {
+                    entry.getFilter().messageReceived(entry.getNextEntry(), session, message);
+                } catch (Exception e) {
+                    session.getFilterChain().fireExceptionCaught(e);
+                }
+            }
+        }
+    }
+}
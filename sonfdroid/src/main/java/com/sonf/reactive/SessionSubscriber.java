@@ -0,0 +1,99 @@
+package com.sonf.reactive;
+
+import com.sonf.core.future.IOFuture;
+import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.future.IoFutureListener;
+import com.sonf.core.session.IOSession;
+
+/**
+ * A {@link Flow.Subscriber} writing the items it receives to a session.
+ *
+ * No more than <tt>maxInFlight</tt> messages are waiting in the write queue of the session:
+ * a new item is requested each time a message is sent, so a slow peer holds the publisher back.
+ * The subscription is cancelled if a write fails, for example once the session is closed.
+ */
+public class SessionSubscriber implements Flow.Subscriber<Object> {
+    private final IOSession session;
+    private final int maxInFlight;
+    private final boolean closeOnComplete;
+    private volatile Flow.Subscription subscription;
+
+    private final IoFutureListener<IOFuture> writtenListener = new IoFutureListener<IOFuture>() {
+        @Override
+        public void onComplete(IOFuture future) {
+            Flow.Subscription s = subscription;
+            if (future.getException() != null) {
+                subscription = null;
+                if (s != null) {
+                    s.cancel();
+                }
+            } else if (s != null) {
+                s.request(1);
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param session the session to write to
+     * @param maxInFlight the number of messages written but not sent yet
+     * @param closeOnComplete <tt>true</tt> to close the session once the publisher completes
+     *                        and the messages are flushed
+     */
+    public SessionSubscriber(IOSession session, int maxInFlight, boolean closeOnComplete) {
+        if (session == null) {
+            throw new IllegalArgumentException("session");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight: " + maxInFlight + " (expected: 1+)");
+        }
+        this.session = session;
+        this.maxInFlight = maxInFlight;
+        this.closeOnComplete = closeOnComplete;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(Object item) {
+        IWriteFuture future = session.write(item);
+        future.setListener(writtenListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The session is closed at once.
+     */
+    @Override
+    public void onError(Throwable throwable) {
+        subscription = null;
+        session.closeNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete() {
+        subscription = null;
+        if (closeOnComplete) {
+            session.closeOnFlush();
+        }
+    }
+}
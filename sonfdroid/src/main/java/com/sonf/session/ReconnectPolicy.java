@@ -0,0 +1,157 @@
+package com.sonf.session;
+
+import java.util.Random;
+
+/**
+ * Back-off policy used by {@link ReconnectingSession} to compute the delay before each
+ * reconnect attempt.
+ *
+ * The delay grows exponentially from {@link #getInitialDelayMs()} by {@link #getMultiplier()}
+ * on each failed attempt and is capped at {@link #getMaxDelayMs()}. A random part of the delay,
+ * up to {@link #getJitter()}, is subtracted so that many clients which lost the same server do
+ * not come back at the very same time.
+ */
+public class ReconnectPolicy {
+    /** The delay before the first reconnect attempt. Default to 500ms */
+    private long initialDelayMs = 500L;
+
+    /** The upper bound of the delay between two attempts. Default to 30s */
+    private long maxDelayMs = 30 * 1000L;
+
+    /** The factor applied to the delay after each failed attempt */
+    private double multiplier = 2.0;
+
+    /** The part of the delay which is randomized, from 0 (none) to 1 (full jitter) */
+    private double jitter = 0.5;
+
+    /** The maximum number of consecutive attempts, a negative value means infinite */
+    private int maxAttempts = -1;
+
+    /** The maximum bytes of messages buffered while the session is reconnecting */
+    private int maxPendingBytes = 256 * 1024;
+
+    /**
+     * @return the delay in milliseconds before the first reconnect attempt
+     */
+    public long getInitialDelayMs() {
+        return initialDelayMs;
+    }
+
+    /**
+     * Set the delay before the first reconnect attempt
+     *
+     * @param initialDelayMs delay in milliseconds
+     */
+    public void setInitialDelayMs(long initialDelayMs) {
+        if (initialDelayMs < 0) {
+            throw new IllegalArgumentException("initialDelayMs: " + initialDelayMs + " (expected: 0+)");
+        }
+        this.initialDelayMs = initialDelayMs;
+    }
+
+    /**
+     * @return the upper bound in milliseconds of the delay between two attempts
+     */
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * Set the upper bound of the delay between two attempts
+     *
+     * @param maxDelayMs delay in milliseconds
+     */
+    public void setMaxDelayMs(long maxDelayMs) {
+        if (maxDelayMs < 0) {
+            throw new IllegalArgumentException("maxDelayMs: " + maxDelayMs + " (expected: 0+)");
+        }
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @return the factor applied to the delay after each failed attempt
+     */
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Set the factor applied to the delay after each failed attempt
+     *
+     * @param multiplier a value not less than 1
+     */
+    public void setMultiplier(double multiplier) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier: " + multiplier + " (expected: 1+)");
+        }
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * @return the part of the delay which is randomized
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Set the part of the delay which is randomized.
+     *
+     * @param jitter 0 for a fixed delay, 1 for a delay picked anywhere between 0 and the computed value
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter: " + jitter + " (expected: 0..1)");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return the maximum number of consecutive attempts, a negative value means infinite
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Set the maximum number of consecutive attempts before giving up
+     *
+     * @param maxAttempts a negative value means infinite
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the maximum bytes of messages buffered while reconnecting
+     */
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * Set the maximum bytes of messages buffered while reconnecting.
+     * Writes exceeding this limit fail immediately.
+     *
+     * @param maxPendingBytes the limit in bytes, 0 disables buffering
+     */
+    public void setMaxPendingBytes(int maxPendingBytes) {
+        if (maxPendingBytes < 0) {
+            throw new IllegalArgumentException("maxPendingBytes: " + maxPendingBytes + " (expected: 0+)");
+        }
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Compute the delay before the given attempt
+     *
+     * @param attempt the number of failed attempts so far, starting from 0
+     * @param random the random source for the jitter
+     * @return the delay in milliseconds
+     */
+    public long getDelayMs(int attempt, Random random) {
+        double delay = initialDelayMs * Math.pow(multiplier, attempt);
+        long capped = (long) Math.min(delay, (double) maxDelayMs);
+        return capped - (long) (capped * jitter * random.nextDouble());
+    }
+}
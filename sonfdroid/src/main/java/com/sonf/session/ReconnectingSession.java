@@ -0,0 +1,456 @@
+package com.sonf.session;
+
+import com.sonf.core.NamedRunnable;
+import com.sonf.core.buffer.IoBuffer;
+import com.sonf.core.future.ICloseFuture;
+import com.sonf.core.future.IConnectFuture;
+import com.sonf.core.future.IOFuture;
+import com.sonf.core.future.IWriteFuture;
+import com.sonf.core.future.IoFutureListener;
+import com.sonf.core.session.AbstractIOConfig;
+import com.sonf.core.session.AbstractIOSession;
+import com.sonf.core.session.IOHandler;
+import com.sonf.core.write.WriteException;
+import com.sonf.future.WriteFuture;
+import com.sonf.polling.AbstractPollingIoController;
+import com.yynie.myutils.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A wrapper which keeps a session to a remote endpoint alive.
+ *
+ * When the underlying {@link AbstractIOSession} is closed without {@link #close()} being called,
+ * or when a connect attempt fails, a new session is created by the controller and connected again
+ * after a delay given by the {@link ReconnectPolicy}.
+ * Messages written through {@link #write(Object)} while the connection is down, as well as the
+ * ones which were still queued when the connection went down, are buffered up to
+ * {@link ReconnectPolicy#getMaxPendingBytes()} and replayed in order once reconnected.
+ *
+ * Note that each reconnection uses a new {@link AbstractIOSession}, so the {@link IOHandler}
+ * will see a new session id on every {@link IOHandler#sessionOpened}.
+ */
+public class ReconnectingSession<S extends AbstractIOSession> {
+    private final Logger log = Logger.get(ReconnectingSession.class, Logger.Level.INFO);
+
+    private final AbstractPollingIoController<S, ?> controller;
+    private final String host;
+    private final int port;
+    private final AbstractIOConfig config;
+    private final ReconnectPolicy policy;
+
+    /** The scheduler running the delayed reconnect attempts */
+    private final ScheduledExecutorService scheduler;
+
+    /** A flag marked that the scheduler was created locally and so it should be shutdown on close */
+    private final boolean createdScheduler;
+
+    private final Random random = new Random();
+    private final Object lock = new Object();
+
+    /** Messages waiting for the connection to come back, in the order they were written */
+    private final LinkedList<PendingWrite> pendingWrites = new LinkedList<PendingWrite>();
+    private int pendingBytes;
+    /** The sequence number of the next message written */
+    private long nextSequence;
+
+    private volatile S session;
+    private IOFuture connectFuture;
+    private ScheduledFuture<?> reconnectTask;
+    private int attempts;
+    private volatile long reconnectCount;
+    private volatile boolean connected;
+    private volatile boolean closed;
+
+    /**
+     * Constructor using the controller's configuration and a default {@link ReconnectPolicy}
+     *
+     * @param controller the controller which creates and connects the sessions
+     * @param host the host domain or ip address of the remote endpoint
+     * @param port the port on which the remote endpoint listened for connections
+     */
+    public ReconnectingSession(AbstractPollingIoController<S, ?> controller, String host, int port) {
+        this(controller, host, port, controller.getConfig(), new ReconnectPolicy(), null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param controller the controller which creates and connects the sessions
+     * @param host the host domain or ip address of the remote endpoint
+     * @param port the port on which the remote endpoint listened for connections
+     * @param config the configuration shared by the successive sessions, a snapshot of it is taken
+     *               when each one connects
+     * @param policy the back-off policy
+     * @param scheduler the scheduler running the delayed reconnect attempts.
+     *                  Pass <code>null</code> if you want this wrapper to create a default one.
+     */
+    public ReconnectingSession(AbstractPollingIoController<S, ?> controller, String host, int port,
+                               AbstractIOConfig config, ReconnectPolicy policy, ScheduledExecutorService scheduler) {
+        if (controller == null) {
+            throw new IllegalArgumentException("controller");
+        }
+        if (host == null) {
+            throw new IllegalArgumentException("host");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("config");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy");
+        }
+
+        this.controller = controller;
+        this.host = host;
+        this.port = port;
+        this.config = config;
+        this.policy = policy;
+        if (scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+            this.createdScheduler = true;
+        } else {
+            this.scheduler = scheduler;
+            this.createdScheduler = false;
+        }
+    }
+
+    /**
+     * Create the first session and start connecting it.
+     *
+     * @return the connect future of the first attempt
+     */
+    public IOFuture connect() {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Already closed.");
+            }
+            if (session != null) {
+                throw new IllegalStateException("Already connected.");
+            }
+            return connectNew();
+        }
+    }
+
+    /**
+     * @return the current underlying session, may be <tt>null</tt> before {@link #connect()}
+     */
+    public S getSession() {
+        return session;
+    }
+
+    /**
+     * @return whether the current underlying session is opened
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return whether {@link #close()} has been called or the policy gave up reconnecting
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of reconnect attempts made since {@link #connect()}
+     */
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * @return the bytes of messages currently buffered for replay
+     */
+    public int getPendingBytes() {
+        synchronized (lock) {
+            return pendingBytes;
+        }
+    }
+
+    /**
+     * Writes the specified <code>message</code> to the remote endpoint.
+     * If the connection is down, the message is buffered and written once reconnected.
+     *
+     * @param message The message to write
+     * @return The associated WriteFuture, which fails if the buffer is full or this wrapper is closed
+     */
+    public IWriteFuture write(Object message) {
+        if (message == null) {
+            throw new IllegalArgumentException("Trying to write a null message : not allowed");
+        }
+
+        IWriteFuture future = new WriteFuture(session);
+        PendingWrite packet = new PendingWrite(message, future);
+        synchronized (lock) {
+            if (closed) {
+                future.setException(new WriteException("Trying to write a message to a closed session"));
+                return future;
+            }
+            packet.sequence = nextSequence++;
+
+            S s = session;
+            if (connected && s != null && s.isReady()) {
+                forward(s, packet);
+            } else if (!offer(packet)) {
+                future.setException(new WriteException("Reconnect buffer is full"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Stop reconnecting and close the current session.
+     * All buffered messages fail.
+     *
+     * @return the {@link ICloseFuture} of the current session, or <tt>null</tt> if there is none
+     */
+    public ICloseFuture close() {
+        S s;
+        IOFuture future;
+        synchronized (lock) {
+            if (closed) {
+                return (session == null) ? null : session.getCloseFuture();
+            }
+            closed = true;
+            connected = false;
+            if (reconnectTask != null) {
+                reconnectTask.cancel(false);
+                reconnectTask = null;
+            }
+            failPending(new WriteException("session closed!"));
+            s = session;
+            future = connectFuture;
+        }
+
+        if (createdScheduler) {
+            scheduler.shutdown();
+        }
+
+        if (s == null) {
+            return null;
+        }
+        if (s.isConnecting() && future instanceof IConnectFuture) {
+            ((IConnectFuture) future).cancel();
+            return s.getCloseFuture();
+        }
+        return s.closeNow();
+    }
+
+    private IOFuture connectNew() {
+        S s = controller.createSession(host, port, config);
+        s.shareConfig(config);
+        session = s;
+        // Added listeners, the caller may set its own on these futures
+        s.getCloseFuture().addListener(new CloseListener(s));
+        IOFuture future = s.connect();
+        connectFuture = future;
+        future.addListener(new ConnectListener(s));
+        return future;
+    }
+
+    private void onConnected(S s) {
+        synchronized (lock) {
+            if (s != session) {
+                return;
+            }
+            if (closed) {
+                s.closeNow();
+                return;
+            }
+            log.i("onConnected: session id={}, replay {} messages", s.getId(), pendingWrites.size());
+            attempts = 0;
+            connected = true;
+            // Replay under the lock so that new writes can't overtake the buffered ones
+            List<PendingWrite> replay = new ArrayList<PendingWrite>(pendingWrites);
+            pendingWrites.clear();
+            pendingBytes = 0;
+            for (PendingWrite p : replay) {
+                forward(s, p);
+            }
+        }
+    }
+
+    private void onDisconnected(S s, Throwable cause) {
+        synchronized (lock) {
+            if (s != session || closed) {
+                return;
+            }
+            connected = false;
+
+            int maxAttempts = policy.getMaxAttempts();
+            if (controller.isDisposing() || (maxAttempts >= 0 && attempts >= maxAttempts)) {
+                log.w("onDisconnected: give up reconnecting after {} attempts", attempts);
+                closed = true;
+                failPending(cause != null ? cause : new WriteException("session closed!"));
+                if (createdScheduler) {
+                    scheduler.shutdown();
+                }
+                return;
+            }
+
+            long delay = policy.getDelayMs(attempts++, random);
+            log.i("onDisconnected: reconnect in {}ms, attempt {}", delay, attempts);
+            reconnectTask = scheduler.schedule(new NamedRunnable(new ReconnectTask(), "ReconnectTask"),
+                    delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void forward(S s, PendingWrite packet) {
+        packet.rewind();
+        IWriteFuture future = s.write(packet.message);
+        future.addListener(new WrittenListener(packet));
+    }
+
+    private boolean offer(PendingWrite packet) {
+        if (pendingBytes + packet.size > policy.getMaxPendingBytes()) {
+            return false;
+        }
+        // A message failed by the lost session goes back before the ones written since
+        ListIterator<PendingWrite> it = pendingWrites.listIterator(pendingWrites.size());
+        while (it.hasPrevious()) {
+            if (it.previous().sequence < packet.sequence) {
+                it.next();
+                break;
+            }
+        }
+        it.add(packet);
+        pendingBytes += packet.size;
+        return true;
+    }
+
+    private void failPending(Throwable cause) {
+        PendingWrite p;
+        while ((p = pendingWrites.poll()) != null) {
+            p.future.setException(cause);
+        }
+        pendingBytes = 0;
+    }
+
+    /**
+     * Estimate the size of a buffered message, used against {@link ReconnectPolicy#getMaxPendingBytes()}.
+     * Override it if your messages are not {@link IoBuffer}, byte array or {@link CharSequence}.
+     *
+     * @param message the message to be buffered
+     * @return the estimated size in bytes
+     */
+    protected int estimateSize(Object message) {
+        if (message instanceof IoBuffer) {
+            return ((IoBuffer) message).remaining();
+        }
+        if (message instanceof byte[]) {
+            return ((byte[]) message).length;
+        }
+        if (message instanceof CharSequence) {
+            return ((CharSequence) message).length();
+        }
+        return 1;
+    }
+
+    private class ReconnectTask implements Runnable {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                reconnectTask = null;
+                if (closed) {
+                    return;
+                }
+                reconnectCount++;
+                try {
+                    connectNew();
+                } catch (Exception e) {
+                    log.e("ReconnectTask: {}", e);
+                    onDisconnected(session, e);
+                }
+            }
+        }
+    }
+
+    private class ConnectListener implements IoFutureListener<IOFuture> {
+        private final S s;
+
+        private ConnectListener(S s) {
+            this.s = s;
+        }
+
+        @Override
+        public void onComplete(IOFuture future) {
+            if (((IConnectFuture) future).isConnected()) {
+                onConnected(s);
+            } else {
+                onDisconnected(s, future.getException());
+            }
+        }
+    }
+
+    private class CloseListener implements IoFutureListener<IOFuture> {
+        private final S s;
+
+        private CloseListener(S s) {
+            this.s = s;
+        }
+
+        @Override
+        public void onComplete(IOFuture future) {
+            onDisconnected(s, null);
+        }
+    }
+
+    private class WrittenListener implements IoFutureListener<IOFuture> {
+        private final PendingWrite packet;
+
+        private WrittenListener(PendingWrite packet) {
+            this.packet = packet;
+        }
+
+        @Override
+        public void onComplete(IOFuture future) {
+            if (((IWriteFuture) future).isWritten()) {
+                packet.future.setWritten();
+                return;
+            }
+
+            Throwable cause = future.getException();
+            // A WriteException means the session went down under the message : keep it for replay
+            if (cause instanceof WriteException) {
+                synchronized (lock) {
+                    if (!closed && offer(packet)) {
+                        return;
+                    }
+                }
+            }
+            packet.future.setException(cause);
+        }
+    }
+
+    private class PendingWrite {
+        private final Object message;
+        private final IWriteFuture future;
+        private final int position;
+        private final int size;
+        /** The order of the message among the written ones, set under the lock */
+        private long sequence;
+
+        private PendingWrite(Object message, IWriteFuture future) {
+            this.message = message;
+            this.future = future;
+            this.position = (message instanceof IoBuffer) ? ((IoBuffer) message).position() : 0;
+            this.size = estimateSize(message);
+        }
+
+        /** A partially written buffer must be sent again from its very start */
+        private void rewind() {
+            if (message instanceof IoBuffer) {
+                ((IoBuffer) message).position(position);
+            }
+        }
+    }
+}
@@ -42,6 +42,7 @@ public abstract class AbstractSocketConfig extends AbstractIOConfig {
      * @param connectTimeoutMs
      */
     public void setConnectTimeoutMs(long connectTimeoutMs) {
+        modified();
         this.connectTimeoutMs = connectTimeoutMs;
     }
 
@@ -0,0 +1,148 @@
+package com.sonf.core.session;
+
+import com.sonf.core.RuntimeIoException;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadQueueTest {
+
+    /**
+     * Only tracks the read suspension, which is all the queue uses of the session
+     */
+    private static final class SuspensionHandler implements InvocationHandler {
+        private final AtomicInteger reasons = new AtomicInteger();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("suspendRead") && args != null) {
+                int bits = (Integer) args[0];
+                for (;;) {
+                    int current = reasons.get();
+                    if (reasons.compareAndSet(current, current | bits)) {
+                        return null;
+                    }
+                }
+            }
+            if (method.getName().equals("resumeRead") && args != null) {
+                int bits = (Integer) args[0];
+                for (;;) {
+                    int current = reasons.get();
+                    if (reasons.compareAndSet(current, current & ~bits)) {
+                        return null;
+                    }
+                }
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        boolean isSuspended() {
+            return (reasons.get() & ReadSuspension.READ_QUEUE) != 0;
+        }
+    }
+
+    private static IOSession newSession(SuspensionHandler handler) {
+        return (IOSession) Proxy.newProxyInstance(IOSession.class.getClassLoader(),
+                new Class<?>[]{IOSession.class}, handler);
+    }
+
+    @Test
+    public void fillingTheQueueSuspendsReadingAndLosesNothing() throws Exception {
+        SuspensionHandler handler = new SuspensionHandler();
+        ReadQueue queue = new ReadQueue(newSession(handler), 8);
+
+        for (int i = 0; i < 7; i++) {
+            queue.offerMessage(i);
+        }
+        assertFalse(handler.isSuspended());
+
+        // What was decoded from the same read goes past the capacity
+        for (int i = 7; i < 20; i++) {
+            queue.offerMessage(i);
+            assertTrue(handler.isSuspended());
+        }
+        assertEquals(20, queue.size());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, queue.take(0));
+            // Resumed at the low-water mark only
+            assertEquals(queue.size() > 4, handler.isSuspended());
+        }
+        assertNull(queue.take(0));
+    }
+
+    @Test
+    public void concurrentReaderGetsEveryMessageInOrder() throws Exception {
+        final int count = 100000;
+        final SuspensionHandler handler = new SuspensionHandler();
+        final ReadQueue queue = new ReadQueue(newSession(handler), 16);
+        final AtomicInteger received = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Object message = queue.take(10000);
+                        if (!Integer.valueOf(i).equals(message)) {
+                            return;
+                        }
+                        received.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        reader.start();
+
+        // Behaves like the processor, it reads nothing while suspended
+        for (int i = 0; i < count; i++) {
+            while (handler.isSuspended()) {
+                Thread.yield();
+            }
+            queue.offerMessage(i);
+        }
+        done.await();
+
+        assertEquals(count, received.get());
+        assertFalse(handler.isSuspended());
+    }
+
+    @Test
+    public void closeIsReportedOnceDrained() throws Exception {
+        SuspensionHandler handler = new SuspensionHandler();
+        ReadQueue queue = new ReadQueue(newSession(handler), 2);
+
+        queue.offerMessage("a");
+        queue.offerMessage("b");
+        queue.close();
+        assertTrue(handler.isSuspended());
+
+        assertEquals("a", queue.take(0));
+        assertEquals("b", queue.take(0));
+        assertFalse(handler.isSuspended());
+        for (int i = 0; i < 2; i++) {
+            try {
+                queue.take(0);
+                fail("closed queue");
+            } catch (RuntimeIoException expected) {
+                // Each reader learns about it
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.sonf.reactive;
+
+import com.sonf.core.filter.IFilter;
+import com.sonf.core.filter.IFilterAdapter;
+import com.sonf.core.filter.IFilterChain;
+import com.sonf.core.session.IOSession;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionPublisherTest {
+
+    /**
+     * A chain holding the filters by name, the publisher only adds and removes its own
+     */
+    private static final class ChainHandler implements InvocationHandler {
+        private final Map<String, IFilter> filters = new LinkedHashMap<String, IFilter>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("addLast")) {
+                if (filters.containsKey(args[0])) {
+                    throw new IllegalArgumentException("Other filter is using the same name '" + args[0] + "'");
+                }
+                filters.put((String) args[0], (IFilter) args[1]);
+                return null;
+            }
+            if (name.equals("remove")) {
+                return filters.values().remove(args[0]);
+            }
+            if (name.equals("contains")) {
+                return filters.containsValue(args[0]);
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        IFilter last() {
+            IFilter last = null;
+            for (IFilter filter : filters.values()) {
+                last = filter;
+            }
+            return last;
+        }
+    }
+
+    private static final class SessionHandler implements InvocationHandler {
+        private final IFilterChain chain;
+
+        private SessionHandler(IFilterChain chain) {
+            this.chain = chain;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getFilterChain")) {
+                return chain;
+            }
+            if (name.equals("isActive")) {
+                return true;
+            }
+            if (name.equals("getId")) {
+                return 1L;
+            }
+            if (name.equals("suspendRead") || name.equals("resumeRead")) {
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    /**
+     * Stands for the rest of the chain, up to the handler
+     */
+    private static final class Handler extends IFilterAdapter implements IFilterChain.Entry {
+        private final List<Object> received = new ArrayList<Object>();
+
+        @Override
+        public void messageReceived(IFilterChain.Entry next, IOSession session, Object message) {
+            received.add(message);
+        }
+
+        @Override
+        public String getName() {
+            return "handler";
+        }
+
+        @Override
+        public IFilter getFilter() {
+            return this;
+        }
+
+        @Override
+        public IFilterChain.Entry getNextEntry() {
+            return null;
+        }
+
+        @Override
+        public IFilterChain.Entry getPrevEntry() {
+            return null;
+        }
+    }
+
+    private static final class Subscriber implements Flow.Subscriber<Object> {
+        private final List<Object> received = new ArrayList<Object>();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Object item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void cancelThenResubscribe() throws Exception {
+        ChainHandler chainHandler = new ChainHandler();
+        IFilterChain chain = (IFilterChain) Proxy.newProxyInstance(IFilterChain.class.getClassLoader(),
+                new Class<?>[]{IFilterChain.class}, chainHandler);
+        IOSession session = (IOSession) Proxy.newProxyInstance(IOSession.class.getClassLoader(),
+                new Class<?>[]{IOSession.class}, new SessionHandler(chain));
+        SessionPublisher publisher = new SessionPublisher(session);
+        Handler handler = new Handler();
+
+        Subscriber first = new Subscriber();
+        publisher.subscribe(first);
+        IFilter filter = chainHandler.last();
+        first.subscription.request(1);
+        filter.messageReceived(handler, session, "a");
+        // Decoded from the same read, buffered without demand
+        filter.messageReceived(handler, session, "b");
+        filter.messageReceived(handler, session, "c");
+        assertEquals(1, first.received.size());
+
+        first.subscription.cancel();
+        // The buffered ones went to the handler, and the subscription left the chain
+        assertEquals(2, handler.received.size());
+        assertEquals("b", handler.received.get(0));
+        assertEquals("c", handler.received.get(1));
+        assertFalse(chain.contains(filter));
+
+        Subscriber second = new Subscriber();
+        publisher.subscribe(second);
+        assertNull(second.error);
+        IFilter next = chainHandler.last();
+        assertTrue(chain.contains(next));
+        second.subscription.request(1);
+        next.messageReceived(handler, session, "d");
+        assertEquals(1, second.received.size());
+        assertEquals("d", second.received.get(0));
+        assertEquals(2, handler.received.size());
+        assertFalse(second.completed);
+    }
+
+    @Test
+    public void secondSubscriberIsRefusedWhileTheFirstIsActive() {
+        ChainHandler chainHandler = new ChainHandler();
+        IFilterChain chain = (IFilterChain) Proxy.newProxyInstance(IFilterChain.class.getClassLoader(),
+                new Class<?>[]{IFilterChain.class}, chainHandler);
+        IOSession session = (IOSession) Proxy.newProxyInstance(IOSession.class.getClassLoader(),
+                new Class<?>[]{IOSession.class}, new SessionHandler(chain));
+        SessionPublisher publisher = new SessionPublisher(session);
+
+        Subscriber first = new Subscriber();
+        publisher.subscribe(first);
+        IFilter filter = chainHandler.last();
+        Subscriber second = new Subscriber();
+        publisher.subscribe(second);
+
+        assertTrue(second.error instanceof IllegalStateException);
+        // The refused one leaves the first in place
+        assertTrue(chain.contains(filter));
+        assertNull(first.error);
+    }
+}